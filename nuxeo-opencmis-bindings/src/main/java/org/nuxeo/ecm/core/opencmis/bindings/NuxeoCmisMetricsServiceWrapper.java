@@ -0,0 +1,892 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.bindings;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.chemistry.opencmis.commons.data.Acl;
+import org.apache.chemistry.opencmis.commons.data.AllowableActions;
+import org.apache.chemistry.opencmis.commons.data.BulkUpdateObjectIdAndChangeToken;
+import org.apache.chemistry.opencmis.commons.data.ContentStream;
+import org.apache.chemistry.opencmis.commons.data.ExtensionsData;
+import org.apache.chemistry.opencmis.commons.data.FailedToDeleteData;
+import org.apache.chemistry.opencmis.commons.data.ObjectData;
+import org.apache.chemistry.opencmis.commons.data.ObjectInFolderContainer;
+import org.apache.chemistry.opencmis.commons.data.ObjectInFolderList;
+import org.apache.chemistry.opencmis.commons.data.ObjectList;
+import org.apache.chemistry.opencmis.commons.data.ObjectParentData;
+import org.apache.chemistry.opencmis.commons.data.Properties;
+import org.apache.chemistry.opencmis.commons.data.RenditionData;
+import org.apache.chemistry.opencmis.commons.data.RepositoryInfo;
+import org.apache.chemistry.opencmis.commons.definitions.TypeDefinition;
+import org.apache.chemistry.opencmis.commons.definitions.TypeDefinitionContainer;
+import org.apache.chemistry.opencmis.commons.definitions.TypeDefinitionList;
+import org.apache.chemistry.opencmis.commons.enums.AclPropagation;
+import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
+import org.apache.chemistry.opencmis.commons.enums.RelationshipDirection;
+import org.apache.chemistry.opencmis.commons.enums.UnfileObject;
+import org.apache.chemistry.opencmis.commons.enums.VersioningState;
+import org.apache.chemistry.opencmis.commons.server.CallContext;
+import org.apache.chemistry.opencmis.commons.server.CmisService;
+import org.apache.chemistry.opencmis.commons.spi.Holder;
+import org.apache.chemistry.opencmis.server.support.wrapper.AbstractCmisServiceWrapper;
+import org.nuxeo.ecm.core.opencmis.impl.server.CoreSessionCallStats;
+import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoCmisService;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+
+/**
+ * CMIS Service Wrapper recording metrics for each service method.
+ * <p>
+ * For each method, the metrics are named {@code nuxeo.cmis.<binding>.<repository>.<method>} and registered in the
+ * shared Nuxeo metrics registry, which is exposed through JMX. They are a timer, an {@code errors} meter, a
+ * {@code results} histogram for the methods returning lists, and {@code bytesIn}/{@code bytesOut} meters for the
+ * content streams.
+ * <p>
+ * When the repository has a slow call threshold, the calls above it are logged with the statistics of the calls made
+ * to the {@link org.nuxeo.ecm.core.api.CoreSession CoreSession}.
+ *
+ * @since 7.3
+ */
+public class NuxeoCmisMetricsServiceWrapper extends AbstractCmisServiceWrapper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NuxeoCmisMetricsServiceWrapper.class);
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    /** Metrics of the service methods, by metric name. */
+    protected static final ConcurrentMap<String, MethodMetrics> methodMetrics =
+            new ConcurrentHashMap<String, MethodMetrics>();
+
+    public NuxeoCmisMetricsServiceWrapper(CmisService service) {
+        super(service);
+    }
+
+    /**
+     * Gets the metric name for a method of this service, tagged with the binding and repository.
+     */
+    protected String getMetricName(String method) {
+        CallContext context = getCallContext();
+        String binding = context == null ? null : context.getBinding();
+        String repositoryId = context == null ? null : context.getRepositoryId();
+        // null or empty names are skipped
+        return MetricRegistry.name("nuxeo", "cmis", binding, repositoryId, method);
+    }
+
+    /**
+     * The metrics of a service method for a binding and a repository, looked up in the registry once.
+     */
+    protected static class MethodMetrics {
+
+        protected final MetricRegistry registry;
+
+        protected final String name;
+
+        protected final Timer timer;
+
+        protected final Meter errors;
+
+        protected volatile Histogram results;
+
+        protected volatile Meter bytesIn;
+
+        protected volatile Meter bytesOut;
+
+        protected MethodMetrics(MetricRegistry registry, String name) {
+            this.registry = registry;
+            this.name = name;
+            timer = registry.timer(name);
+            errors = registry.meter(MetricRegistry.name(name, "errors"));
+        }
+
+        protected Histogram getResults() {
+            if (results == null) {
+                results = registry.histogram(MetricRegistry.name(name, "results"));
+            }
+            return results;
+        }
+
+        protected Meter getBytesIn() {
+            if (bytesIn == null) {
+                bytesIn = registry.meter(MetricRegistry.name(name, "bytesIn"));
+            }
+            return bytesIn;
+        }
+
+        protected Meter getBytesOut() {
+            if (bytesOut == null) {
+                bytesOut = registry.meter(MetricRegistry.name(name, "bytesOut"));
+            }
+            return bytesOut;
+        }
+    }
+
+    protected MethodMetrics getMethodMetrics(String method) {
+        String name = getMetricName(method);
+        MethodMetrics metrics = methodMetrics.get(name);
+        if (metrics == null) {
+            metrics = new MethodMetrics(registry, name);
+            MethodMetrics previous = methodMetrics.putIfAbsent(name, metrics);
+            if (previous != null) {
+                metrics = previous;
+            }
+        }
+        if (metrics.registry != registry) {
+            // registry was recreated
+            metrics = new MethodMetrics(registry, name);
+            methodMetrics.put(name, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * A call to the wrapped service.
+     */
+    protected interface ServiceMethod<T> {
+
+        T call();
+    }
+
+    /**
+     * A service call being measured.
+     */
+    protected static class ServiceCall {
+
+        protected final String method;
+
+        protected final MethodMetrics metrics;
+
+        protected final Timer.Context timer;
+
+        protected final long start = System.nanoTime();
+
+        /** Session statistics at the start of the call, or {@code null} if not recorded. */
+        protected final long[] stats;
+
+        protected ServiceCall(String method, MethodMetrics metrics, long[] stats) {
+            this.method = method;
+            this.metrics = metrics;
+            timer = metrics.timer.time();
+            this.stats = stats;
+        }
+    }
+
+    protected <T> T measure(String method, Object arg, ServiceMethod<T> serviceMethod) {
+        return measure(method, arg, null, serviceMethod);
+    }
+
+    /**
+     * Calls the wrapped service, recording the time, errors, results and bytes of the call.
+     *
+     * @param method the method name
+     * @param arg the main argument of the call, logged for slow calls
+     * @param contentStream the content stream received, or {@code null}
+     * @param serviceMethod the call to the wrapped service
+     */
+    protected <T> T measure(String method, Object arg, ContentStream contentStream, ServiceMethod<T> serviceMethod) {
+        ServiceCall call = startCall(method);
+        try {
+            countBytes(call.metrics, contentStream, true);
+            T result = serviceMethod.call();
+            countResults(call.metrics, result);
+            return result;
+        } catch (RuntimeException e) {
+            call.metrics.errors.mark();
+            throw e;
+        } finally {
+            endCall(call, arg);
+        }
+    }
+
+    protected ServiceCall startCall(String method) {
+        CoreSessionCallStats callStats = getCallStats();
+        return new ServiceCall(method, getMethodMetrics(method), callStats == null ? null : callStats.snapshot());
+    }
+
+    /**
+     * Stops the timer of the call, and logs it if it is slower than the repository threshold.
+     *
+     * @param arg the main argument of the call, logged for slow calls
+     */
+    protected void endCall(ServiceCall call, Object arg) {
+        call.timer.stop();
+        if (call.stats == null) {
+            return;
+        }
+        NuxeoCmisService nuxeoCmisService = NuxeoCmisService.extractFromCmisService(getWrappedService());
+        long elapsed = System.nanoTime() - call.start;
+        if (elapsed < nuxeoCmisService.getNuxeoRepository().getSlowCallThreshold() * 1000000L) {
+            return;
+        }
+        long[] stats = nuxeoCmisService.getCallStats().snapshot();
+        if (arg instanceof Holder) {
+            arg = ((Holder<?>) arg).getValue();
+        }
+        CallContext context = getCallContext();
+        LOG.warn(String.format("Slow CMIS call: operation=%s binding=%s repository=%s user=%s arg=%s elapsedMs=%d "
+                + "sessionCalls=%d queries=%d rows=%d sessionMs=%d otherMs=%d", call.method,
+                context == null ? null : context.getBinding(), context == null ? null : context.getRepositoryId(),
+                context == null ? null : context.getUsername(), arg, elapsed / 1000000,
+                stats[0] - call.stats[0], stats[1] - call.stats[1], stats[2] - call.stats[2],
+                (stats[3] - call.stats[3]) / 1000000, (elapsed - (stats[3] - call.stats[3])) / 1000000));
+    }
+
+    /**
+     * Gets the session statistics of the wrapped Nuxeo service, or {@code null} if they are not recorded.
+     */
+    protected CoreSessionCallStats getCallStats() {
+        NuxeoCmisService nuxeoCmisService = NuxeoCmisService.extractFromCmisService(getWrappedService());
+        return nuxeoCmisService == null ? null : nuxeoCmisService.getCallStats();
+    }
+
+    /**
+     * Records the size of the lists returned, and the bytes of the content streams returned.
+     */
+    protected void countResults(MethodMetrics metrics, Object result) {
+        List<?> list;
+        if (result instanceof List) {
+            list = (List<?>) result;
+        } else if (result instanceof ObjectList) {
+            list = ((ObjectList) result).getObjects();
+        } else if (result instanceof ObjectInFolderList) {
+            list = ((ObjectInFolderList) result).getObjects();
+        } else if (result instanceof TypeDefinitionList) {
+            list = ((TypeDefinitionList) result).getList();
+        } else {
+            if (result instanceof ContentStream) {
+                countBytes(metrics, (ContentStream) result, false);
+            }
+            return;
+        }
+        if (list != null) {
+            metrics.getResults().update(list.size());
+        }
+    }
+
+    /**
+     * Counts the bytes received or sent, using the declared length of the stream.
+     */
+    protected void countBytes(MethodMetrics metrics, ContentStream contentStream, boolean in) {
+        long length = contentStream == null ? -1 : contentStream.getLength();
+        if (length > 0) {
+            (in ? metrics.getBytesIn() : metrics.getBytesOut()).mark(length);
+        }
+    }
+
+    @Override
+    public List<RepositoryInfo> getRepositoryInfos(final ExtensionsData extension) {
+        return measure("getRepositoryInfos", null, new ServiceMethod<List<RepositoryInfo>>() {
+            @Override
+            public List<RepositoryInfo> call() {
+                return getWrappedService().getRepositoryInfos(extension);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryInfo getRepositoryInfo(final String repositoryId, final ExtensionsData extension) {
+        return measure("getRepositoryInfo", null, new ServiceMethod<RepositoryInfo>() {
+            @Override
+            public RepositoryInfo call() {
+                return getWrappedService().getRepositoryInfo(repositoryId, extension);
+            }
+        });
+    }
+
+    @Override
+    public TypeDefinition getTypeDefinition(final String repositoryId, final String typeId,
+            final ExtensionsData extension) {
+        return measure("getTypeDefinition", typeId, new ServiceMethod<TypeDefinition>() {
+            @Override
+            public TypeDefinition call() {
+                return getWrappedService().getTypeDefinition(repositoryId, typeId, extension);
+            }
+        });
+    }
+
+    @Override
+    public TypeDefinitionList getTypeChildren(final String repositoryId, final String typeId,
+            final Boolean includePropertyDefinitions, final BigInteger maxItems, final BigInteger skipCount,
+            final ExtensionsData extension) {
+        return measure("getTypeChildren", typeId, new ServiceMethod<TypeDefinitionList>() {
+            @Override
+            public TypeDefinitionList call() {
+                return getWrappedService().getTypeChildren(repositoryId, typeId, includePropertyDefinitions, maxItems,
+                        skipCount, extension);
+            }
+        });
+    }
+
+    @Override
+    public List<TypeDefinitionContainer> getTypeDescendants(final String repositoryId, final String typeId,
+            final BigInteger depth, final Boolean includePropertyDefinitions, final ExtensionsData extension) {
+        return measure("getTypeDescendants", typeId, new ServiceMethod<List<TypeDefinitionContainer>>() {
+            @Override
+            public List<TypeDefinitionContainer> call() {
+                return getWrappedService().getTypeDescendants(repositoryId, typeId, depth, includePropertyDefinitions,
+                        extension);
+            }
+        });
+    }
+
+    @Override
+    public ObjectData getObject(final String repositoryId, final String objectId, final String filter,
+            final Boolean includeAllowableActions, final IncludeRelationships includeRelationships,
+            final String renditionFilter, final Boolean includePolicyIds, final Boolean includeAcl,
+            final ExtensionsData extension) {
+        return measure("getObject", objectId, new ServiceMethod<ObjectData>() {
+            @Override
+            public ObjectData call() {
+                return getWrappedService().getObject(repositoryId, objectId, filter, includeAllowableActions,
+                        includeRelationships, renditionFilter, includePolicyIds, includeAcl, extension);
+            }
+        });
+    }
+
+    @Override
+    public ObjectData getObjectByPath(final String repositoryId, final String path, final String filter,
+            final Boolean includeAllowableActions, final IncludeRelationships includeRelationships,
+            final String renditionFilter, final Boolean includePolicyIds, final Boolean includeAcl,
+            final ExtensionsData extension) {
+        return measure("getObjectByPath", path, new ServiceMethod<ObjectData>() {
+            @Override
+            public ObjectData call() {
+                return getWrappedService().getObjectByPath(repositoryId, path, filter, includeAllowableActions,
+                        includeRelationships, renditionFilter, includePolicyIds, includeAcl, extension);
+            }
+        });
+    }
+
+    @Override
+    public Properties getProperties(final String repositoryId, final String objectId, final String filter,
+            final ExtensionsData extension) {
+        return measure("getProperties", objectId, new ServiceMethod<Properties>() {
+            @Override
+            public Properties call() {
+                return getWrappedService().getProperties(repositoryId, objectId, filter, extension);
+            }
+        });
+    }
+
+    @Override
+    public AllowableActions getAllowableActions(final String repositoryId, final String objectId,
+            final ExtensionsData extension) {
+        return measure("getAllowableActions", objectId, new ServiceMethod<AllowableActions>() {
+            @Override
+            public AllowableActions call() {
+                return getWrappedService().getAllowableActions(repositoryId, objectId, extension);
+            }
+        });
+    }
+
+    @Override
+    public List<RenditionData> getRenditions(final String repositoryId, final String objectId,
+            final String renditionFilter, final BigInteger maxItems, final BigInteger skipCount,
+            final ExtensionsData extension) {
+        return measure("getRenditions", objectId, new ServiceMethod<List<RenditionData>>() {
+            @Override
+            public List<RenditionData> call() {
+                return getWrappedService().getRenditions(repositoryId, objectId, renditionFilter, maxItems, skipCount,
+                        extension);
+            }
+        });
+    }
+
+    @Override
+    public ContentStream getContentStream(final String repositoryId, final String objectId, final String streamId,
+            final BigInteger offset, final BigInteger length, final ExtensionsData extension) {
+        return measure("getContentStream", objectId, new ServiceMethod<ContentStream>() {
+            @Override
+            public ContentStream call() {
+                return getWrappedService().getContentStream(repositoryId, objectId, streamId, offset, length,
+                        extension);
+            }
+        });
+    }
+
+    @Override
+    public String create(final String repositoryId, final Properties properties, final String folderId,
+            final ContentStream contentStream, final VersioningState versioningState, final List<String> policies,
+            final ExtensionsData extension) {
+        return measure("create", folderId, contentStream, new ServiceMethod<String>() {
+            @Override
+            public String call() {
+                return getWrappedService().create(repositoryId, properties, folderId, contentStream, versioningState,
+                        policies, extension);
+            }
+        });
+    }
+
+    @Override
+    public String createDocument(final String repositoryId, final Properties properties, final String folderId,
+            final ContentStream contentStream, final VersioningState versioningState, final List<String> policies,
+            final Acl addAces, final Acl removeAces, final ExtensionsData extension) {
+        return measure("createDocument", folderId, contentStream, new ServiceMethod<String>() {
+            @Override
+            public String call() {
+                return getWrappedService().createDocument(repositoryId, properties, folderId, contentStream,
+                        versioningState, policies, addAces, removeAces, extension);
+            }
+        });
+    }
+
+    @Override
+    public String createDocumentFromSource(final String repositoryId, final String sourceId,
+            final Properties properties, final String folderId, final VersioningState versioningState,
+            final List<String> policies, final Acl addAces, final Acl removeAces, final ExtensionsData extension) {
+        return measure("createDocumentFromSource", folderId, new ServiceMethod<String>() {
+            @Override
+            public String call() {
+                return getWrappedService().createDocumentFromSource(repositoryId, sourceId, properties, folderId,
+                        versioningState, policies, addAces, removeAces, extension);
+            }
+        });
+    }
+
+    @Override
+    public String createFolder(final String repositoryId, final Properties properties, final String folderId,
+            final List<String> policies, final Acl addAces, final Acl removeAces, final ExtensionsData extension) {
+        return measure("createFolder", folderId, new ServiceMethod<String>() {
+            @Override
+            public String call() {
+                return getWrappedService().createFolder(repositoryId, properties, folderId, policies, addAces,
+                        removeAces, extension);
+            }
+        });
+    }
+
+    @Override
+    public String createRelationship(final String repositoryId, final Properties properties,
+            final List<String> policies, final Acl addAces, final Acl removeAces, final ExtensionsData extension) {
+        return measure("createRelationship", null, new ServiceMethod<String>() {
+            @Override
+            public String call() {
+                return getWrappedService().createRelationship(repositoryId, properties, policies, addAces, removeAces,
+                        extension);
+            }
+        });
+    }
+
+    @Override
+    public String createPolicy(final String repositoryId, final Properties properties, final String folderId,
+            final List<String> policies, final Acl addAces, final Acl removeAces, final ExtensionsData extension) {
+        return measure("createPolicy", folderId, new ServiceMethod<String>() {
+            @Override
+            public String call() {
+                return getWrappedService().createPolicy(repositoryId, properties, folderId, policies, addAces,
+                        removeAces, extension);
+            }
+        });
+    }
+
+    @Override
+    public void updateProperties(final String repositoryId, final Holder<String> objectId,
+            final Holder<String> changeToken, final Properties properties, final ExtensionsData extension) {
+        measure("updateProperties", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().updateProperties(repositoryId, objectId, changeToken, properties, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<BulkUpdateObjectIdAndChangeToken> bulkUpdateProperties(final String repositoryId,
+            final List<BulkUpdateObjectIdAndChangeToken> objectIdAndChangeToken, final Properties properties,
+            final List<String> addSecondaryTypeIds, final List<String> removeSecondaryTypeIds,
+            final ExtensionsData extension) {
+        return measure("bulkUpdateProperties", null, new ServiceMethod<List<BulkUpdateObjectIdAndChangeToken>>() {
+            @Override
+            public List<BulkUpdateObjectIdAndChangeToken> call() {
+                return getWrappedService().bulkUpdateProperties(repositoryId, objectIdAndChangeToken, properties,
+                        addSecondaryTypeIds, removeSecondaryTypeIds, extension);
+            }
+        });
+    }
+
+    @Override
+    public void moveObject(final String repositoryId, final Holder<String> objectId, final String targetFolderId,
+            final String sourceFolderId, final ExtensionsData extension) {
+        measure("moveObject", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().moveObject(repositoryId, objectId, targetFolderId, sourceFolderId, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void deleteObject(final String repositoryId, final String objectId, final Boolean allVersions,
+            final ExtensionsData extension) {
+        measure("deleteObject", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().deleteObject(repositoryId, objectId, allVersions, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void deleteObjectOrCancelCheckOut(final String repositoryId, final String objectId,
+            final Boolean allVersions, final ExtensionsData extension) {
+        measure("deleteObjectOrCancelCheckOut", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().deleteObjectOrCancelCheckOut(repositoryId, objectId, allVersions, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public FailedToDeleteData deleteTree(final String repositoryId, final String folderId, final Boolean allVersions,
+            final UnfileObject unfileObjects, final Boolean continueOnFailure, final ExtensionsData extension) {
+        return measure("deleteTree", folderId, new ServiceMethod<FailedToDeleteData>() {
+            @Override
+            public FailedToDeleteData call() {
+                return getWrappedService().deleteTree(repositoryId, folderId, allVersions, unfileObjects,
+                        continueOnFailure, extension);
+            }
+        });
+    }
+
+    @Override
+    public void setContentStream(final String repositoryId, final Holder<String> objectId, final Boolean overwriteFlag,
+            final Holder<String> changeToken, final ContentStream contentStream, final ExtensionsData extension) {
+        measure("setContentStream", objectId, contentStream, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().setContentStream(repositoryId, objectId, overwriteFlag, changeToken, contentStream,
+                        extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void deleteContentStream(final String repositoryId, final Holder<String> objectId,
+            final Holder<String> changeToken, final ExtensionsData extension) {
+        measure("deleteContentStream", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().deleteContentStream(repositoryId, objectId, changeToken, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ObjectInFolderList getChildren(final String repositoryId, final String folderId, final String filter,
+            final String orderBy, final Boolean includeAllowableActions,
+            final IncludeRelationships includeRelationships, final String renditionFilter,
+            final Boolean includePathSegment, final BigInteger maxItems, final BigInteger skipCount,
+            final ExtensionsData extension) {
+        return measure("getChildren", folderId, new ServiceMethod<ObjectInFolderList>() {
+            @Override
+            public ObjectInFolderList call() {
+                return getWrappedService().getChildren(repositoryId, folderId, filter, orderBy, includeAllowableActions,
+                        includeRelationships, renditionFilter, includePathSegment, maxItems, skipCount, extension);
+            }
+        });
+    }
+
+    @Override
+    public List<ObjectInFolderContainer> getDescendants(final String repositoryId, final String folderId,
+            final BigInteger depth, final String filter, final Boolean includeAllowableActions,
+            final IncludeRelationships includeRelationships, final String renditionFilter,
+            final Boolean includePathSegment, final ExtensionsData extension) {
+        return measure("getDescendants", folderId, new ServiceMethod<List<ObjectInFolderContainer>>() {
+            @Override
+            public List<ObjectInFolderContainer> call() {
+                return getWrappedService().getDescendants(repositoryId, folderId, depth, filter,
+                        includeAllowableActions, includeRelationships, renditionFilter, includePathSegment, extension);
+            }
+        });
+    }
+
+    @Override
+    public List<ObjectInFolderContainer> getFolderTree(final String repositoryId, final String folderId,
+            final BigInteger depth, final String filter, final Boolean includeAllowableActions,
+            final IncludeRelationships includeRelationships, final String renditionFilter,
+            final Boolean includePathSegment, final ExtensionsData extension) {
+        return measure("getFolderTree", folderId, new ServiceMethod<List<ObjectInFolderContainer>>() {
+            @Override
+            public List<ObjectInFolderContainer> call() {
+                return getWrappedService().getFolderTree(repositoryId, folderId, depth, filter, includeAllowableActions,
+                        includeRelationships, renditionFilter, includePathSegment, extension);
+            }
+        });
+    }
+
+    @Override
+    public List<ObjectParentData> getObjectParents(final String repositoryId, final String objectId,
+            final String filter, final Boolean includeAllowableActions, final IncludeRelationships includeRelationships,
+            final String renditionFilter, final Boolean includeRelativePathSegment, final ExtensionsData extension) {
+        return measure("getObjectParents", objectId, new ServiceMethod<List<ObjectParentData>>() {
+            @Override
+            public List<ObjectParentData> call() {
+                return getWrappedService().getObjectParents(repositoryId, objectId, filter, includeAllowableActions,
+                        includeRelationships, renditionFilter, includeRelativePathSegment, extension);
+            }
+        });
+    }
+
+    @Override
+    public ObjectData getFolderParent(final String repositoryId, final String folderId, final String filter,
+            final ExtensionsData extension) {
+        return measure("getFolderParent", folderId, new ServiceMethod<ObjectData>() {
+            @Override
+            public ObjectData call() {
+                return getWrappedService().getFolderParent(repositoryId, folderId, filter, extension);
+            }
+        });
+    }
+
+    @Override
+    public ObjectList getCheckedOutDocs(final String repositoryId, final String folderId, final String filter,
+            final String orderBy, final Boolean includeAllowableActions,
+            final IncludeRelationships includeRelationships, final String renditionFilter, final BigInteger maxItems,
+            final BigInteger skipCount, final ExtensionsData extension) {
+        return measure("getCheckedOutDocs", folderId, new ServiceMethod<ObjectList>() {
+            @Override
+            public ObjectList call() {
+                return getWrappedService().getCheckedOutDocs(repositoryId, folderId, filter, orderBy,
+                        includeAllowableActions, includeRelationships, renditionFilter, maxItems, skipCount, extension);
+            }
+        });
+    }
+
+    @Override
+    public ObjectList query(final String repositoryId, final String statement, final Boolean searchAllVersions,
+            final Boolean includeAllowableActions, final IncludeRelationships includeRelationships,
+            final String renditionFilter, final BigInteger maxItems, final BigInteger skipCount,
+            final ExtensionsData extension) {
+        return measure("query", statement, new ServiceMethod<ObjectList>() {
+            @Override
+            public ObjectList call() {
+                return getWrappedService().query(repositoryId, statement, searchAllVersions, includeAllowableActions,
+                        includeRelationships, renditionFilter, maxItems, skipCount, extension);
+            }
+        });
+    }
+
+    @Override
+    public ObjectList getContentChanges(final String repositoryId, final Holder<String> changeLogToken,
+            final Boolean includeProperties, final String filter, final Boolean includePolicyIds,
+            final Boolean includeAcl, final BigInteger maxItems, final ExtensionsData extension) {
+        return measure("getContentChanges", null, new ServiceMethod<ObjectList>() {
+            @Override
+            public ObjectList call() {
+                return getWrappedService().getContentChanges(repositoryId, changeLogToken, includeProperties, filter,
+                        includePolicyIds, includeAcl, maxItems, extension);
+            }
+        });
+    }
+
+    @Override
+    public void addObjectToFolder(final String repositoryId, final String objectId, final String folderId,
+            final Boolean allVersions, final ExtensionsData extension) {
+        measure("addObjectToFolder", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().addObjectToFolder(repositoryId, objectId, folderId, allVersions, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void removeObjectFromFolder(final String repositoryId, final String objectId, final String folderId,
+            final ExtensionsData extension) {
+        measure("removeObjectFromFolder", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().removeObjectFromFolder(repositoryId, objectId, folderId, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void checkOut(final String repositoryId, final Holder<String> objectId, final ExtensionsData extension,
+            final Holder<Boolean> contentCopied) {
+        measure("checkOut", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().checkOut(repositoryId, objectId, extension, contentCopied);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void cancelCheckOut(final String repositoryId, final String objectId, final ExtensionsData extension) {
+        measure("cancelCheckOut", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().cancelCheckOut(repositoryId, objectId, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void checkIn(final String repositoryId, final Holder<String> objectId, final Boolean major,
+            final Properties properties, final ContentStream contentStream, final String checkinComment,
+            final List<String> policies, final Acl addAces, final Acl removeAces, final ExtensionsData extension) {
+        measure("checkIn", objectId, contentStream, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().checkIn(repositoryId, objectId, major, properties, contentStream, checkinComment,
+                        policies, addAces, removeAces, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ObjectData getObjectOfLatestVersion(final String repositoryId, final String objectId,
+            final String versionSeriesId, final Boolean major, final String filter,
+            final Boolean includeAllowableActions, final IncludeRelationships includeRelationships,
+            final String renditionFilter, final Boolean includePolicyIds, final Boolean includeAcl,
+            final ExtensionsData extension) {
+        return measure("getObjectOfLatestVersion", objectId, new ServiceMethod<ObjectData>() {
+            @Override
+            public ObjectData call() {
+                return getWrappedService().getObjectOfLatestVersion(repositoryId, objectId, versionSeriesId, major,
+                        filter, includeAllowableActions, includeRelationships, renditionFilter, includePolicyIds,
+                        includeAcl, extension);
+            }
+        });
+    }
+
+    @Override
+    public Properties getPropertiesOfLatestVersion(final String repositoryId, final String objectId,
+            final String versionSeriesId, final Boolean major, final String filter, final ExtensionsData extension) {
+        return measure("getPropertiesOfLatestVersion", objectId, new ServiceMethod<Properties>() {
+            @Override
+            public Properties call() {
+                return getWrappedService().getPropertiesOfLatestVersion(repositoryId, objectId, versionSeriesId, major,
+                        filter, extension);
+            }
+        });
+    }
+
+    @Override
+    public List<ObjectData> getAllVersions(final String repositoryId, final String objectId,
+            final String versionSeriesId, final String filter, final Boolean includeAllowableActions,
+            final ExtensionsData extension) {
+        return measure("getAllVersions", objectId, new ServiceMethod<List<ObjectData>>() {
+            @Override
+            public List<ObjectData> call() {
+                return getWrappedService().getAllVersions(repositoryId, objectId, versionSeriesId, filter,
+                        includeAllowableActions, extension);
+            }
+        });
+    }
+
+    @Override
+    public ObjectList getObjectRelationships(final String repositoryId, final String objectId,
+            final Boolean includeSubRelationshipTypes, final RelationshipDirection relationshipDirection,
+            final String typeId, final String filter, final Boolean includeAllowableActions, final BigInteger maxItems,
+            final BigInteger skipCount, final ExtensionsData extension) {
+        return measure("getObjectRelationships", objectId, new ServiceMethod<ObjectList>() {
+            @Override
+            public ObjectList call() {
+                return getWrappedService().getObjectRelationships(repositoryId, objectId, includeSubRelationshipTypes,
+                        relationshipDirection, typeId, filter, includeAllowableActions, maxItems, skipCount, extension);
+            }
+        });
+    }
+
+    @Override
+    public Acl getAcl(final String repositoryId, final String objectId, final Boolean onlyBasicPermissions,
+            final ExtensionsData extension) {
+        return measure("getAcl", objectId, new ServiceMethod<Acl>() {
+            @Override
+            public Acl call() {
+                return getWrappedService().getAcl(repositoryId, objectId, onlyBasicPermissions, extension);
+            }
+        });
+    }
+
+    @Override
+    public Acl applyAcl(final String repositoryId, final String objectId, final Acl addAces, final Acl removeAces,
+            final AclPropagation aclPropagation, final ExtensionsData extension) {
+        return measure("applyAcl", objectId, new ServiceMethod<Acl>() {
+            @Override
+            public Acl call() {
+                return getWrappedService().applyAcl(repositoryId, objectId, addAces, removeAces, aclPropagation,
+                        extension);
+            }
+        });
+    }
+
+    @Override
+    public Acl applyAcl(final String repositoryId, final String objectId, final Acl aces,
+            final AclPropagation aclPropagation) {
+        return measure("applyAcl", objectId, new ServiceMethod<Acl>() {
+            @Override
+            public Acl call() {
+                return getWrappedService().applyAcl(repositoryId, objectId, aces, aclPropagation);
+            }
+        });
+    }
+
+    @Override
+    public void applyPolicy(final String repositoryId, final String policyId, final String objectId,
+            final ExtensionsData extension) {
+        measure("applyPolicy", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().applyPolicy(repositoryId, policyId, objectId, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void removePolicy(final String repositoryId, final String policyId, final String objectId,
+            final ExtensionsData extension) {
+        measure("removePolicy", objectId, new ServiceMethod<Void>() {
+            @Override
+            public Void call() {
+                getWrappedService().removePolicy(repositoryId, policyId, objectId, extension);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<ObjectData> getAppliedPolicies(final String repositoryId, final String objectId, final String filter,
+            final ExtensionsData extension) {
+        return measure("getAppliedPolicies", objectId, new ServiceMethod<List<ObjectData>>() {
+            @Override
+            public List<ObjectData> call() {
+                return getWrappedService().getAppliedPolicies(repositoryId, objectId, filter, extension);
+            }
+        });
+    }
+}
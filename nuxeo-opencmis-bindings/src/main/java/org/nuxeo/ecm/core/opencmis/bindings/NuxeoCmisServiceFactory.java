@@ -14,12 +14,18 @@ package org.nuxeo.ecm.core.opencmis.bindings;
 import java.io.File;
 import java.math.BigInteger;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.chemistry.opencmis.commons.exceptions.CmisInvalidArgumentException;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisRuntimeException;
 import org.apache.chemistry.opencmis.commons.impl.server.AbstractServiceFactory;
 import org.apache.chemistry.opencmis.commons.server.CallContext;
 import org.apache.chemistry.opencmis.commons.server.CmisService;
+import org.apache.chemistry.opencmis.server.support.wrapper.AbstractCmisServiceWrapper;
 import org.apache.chemistry.opencmis.server.support.wrapper.CallContextAwareCmisService;
 import org.apache.chemistry.opencmis.server.support.wrapper.CmisServiceWrapperManager;
 import org.apache.chemistry.opencmis.server.support.wrapper.ConformanceCmisServiceWrapper;
@@ -54,6 +60,13 @@ public class NuxeoCmisServiceFactory extends AbstractServiceFactory {
 
     public static final String PROP_DEFAULT_DEPTH = "service.defaultDepth";
 
+    /**
+     * Whether closed services are kept for the next requests, default true.
+     *
+     * @since 7.3
+     */
+    public static final String PROP_REUSE_SERVICES = "service.reuseServices";
+
     public static final int DEFAULT_TYPES_MAX_ITEMS = 100;
 
     public static final int DEFAULT_TYPES_DEPTH = -1;
@@ -80,6 +93,55 @@ public class NuxeoCmisServiceFactory extends AbstractServiceFactory {
 
     protected long maxContentSize;
 
+    protected boolean reuseServices;
+
+    /** Closed services kept for the next requests, by repository id ("" for none). */
+    protected final ConcurrentMap<String, Queue<PooledCmisService>> pools = new ConcurrentHashMap<>();
+
+    protected volatile boolean destroyed;
+
+    /** Drops the pools when the repositories are discarded. */
+    protected final Runnable clearPools = new Runnable() {
+        @Override
+        public void run() {
+            pools.clear();
+        }
+    };
+
+    /**
+     * Wrapper returning the service to the pool of its factory when the dispatcher closes it.
+     *
+     * @since 7.3
+     */
+    protected static class PooledCmisService extends AbstractCmisServiceWrapper {
+
+        protected final NuxeoCmisServiceFactory factory;
+
+        protected final String repositoryId;
+
+        /** The repository used by the service, which is stale if the repositories have been reloaded since. */
+        protected final NuxeoRepository repository;
+
+        protected final AtomicBoolean inUse = new AtomicBoolean(true);
+
+        public PooledCmisService(NuxeoCmisServiceFactory factory, String repositoryId, CmisService service) {
+            super(service);
+            this.factory = factory;
+            this.repositoryId = repositoryId;
+            repository = NuxeoCmisService.extractFromCmisService(service).getNuxeoRepository();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (inUse.compareAndSet(true, false)) {
+                // don't keep the request in the idle wrappers and service
+                setCallContext(null);
+                factory.release(this);
+            }
+        }
+    }
+
     @Override
     public void init(Map<String, String> parameters) {
         initParameters(parameters);
@@ -88,6 +150,12 @@ public class NuxeoCmisServiceFactory extends AbstractServiceFactory {
         // wrap the service to provide default parameter checks
         wrapperManager.addOuterWrapper(NuxeoCmisServiceWrapper.class, defaultTypesMaxItems, defaultTypesDepth,
                 defaultMaxItems, defaultDepth);
+        // outermost wrapper, so that metrics include the parameter checks
+        wrapperManager.addOuterWrapper(NuxeoCmisMetricsServiceWrapper.class);
+        NuxeoRepositories repositories = Framework.getService(NuxeoRepositories.class);
+        if (repositories != null) {
+            repositories.addDeactivationListener(clearPools);
+        }
     }
 
     protected void initParameters(Map<String, String> parameters) {
@@ -103,6 +171,8 @@ public class NuxeoCmisServiceFactory extends AbstractServiceFactory {
         defaultTypesDepth = getBigIntegerParameter(parameters, PROP_DEFAULT_TYPES_DEPTH, DEFAULT_TYPES_DEPTH);
         defaultMaxItems = getBigIntegerParameter(parameters, PROP_DEFAULT_MAX_ITEMS, DEFAULT_MAX_ITEMS);
         defaultDepth = getBigIntegerParameter(parameters, PROP_DEFAULT_DEPTH, DEFAULT_DEPTH);
+        String reuseServicesStr = parameters.get(PROP_REUSE_SERVICES);
+        reuseServices = StringUtils.isBlank(reuseServicesStr) || Boolean.parseBoolean(reuseServicesStr.trim());
     }
 
     protected static long getLongParameter(Map<String, String> parameters, String key, long def) {
@@ -126,20 +196,94 @@ public class NuxeoCmisServiceFactory extends AbstractServiceFactory {
     @Override
     public CmisService getService(CallContext context) {
         String repositoryId = context.getRepositoryId();
+        NuxeoRepository repository = null;
         if (StringUtils.isBlank(repositoryId)) {
             repositoryId = null;
         } else {
-            NuxeoRepository repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
+            repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
             if (repository == null) {
                 throw new CmisInvalidArgumentException("No such repository: " + repositoryId);
             }
         }
-        NuxeoCmisService nuxeoCmisService = new NuxeoCmisService(repositoryId);
-        CallContextAwareCmisService service = (CallContextAwareCmisService) wrapperManager.wrap(nuxeoCmisService);
+        // the local binding may keep several services open at once
+        CallContextAwareCmisService service;
+        if (reuseServices && !CallContext.BINDING_LOCAL.equals(context.getBinding())) {
+            service = acquire(repositoryId, repository);
+        } else {
+            service = newService(repositoryId);
+        }
         service.setCallContext(context);
         return service;
     }
 
+    protected Queue<PooledCmisService> getPool(String repositoryId) {
+        String key = repositoryId == null ? "" : repositoryId;
+        Queue<PooledCmisService> pool = pools.get(key);
+        if (pool == null) {
+            pool = new ConcurrentLinkedQueue<>();
+            Queue<PooledCmisService> previous = pools.putIfAbsent(key, pool);
+            if (previous != null) {
+                pool = previous;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Takes a closed service from the pool, or creates a new one.
+     * <p>
+     * Services using a repository that has since been reloaded are dropped.
+     *
+     * @since 7.3
+     */
+    protected CallContextAwareCmisService acquire(String repositoryId, NuxeoRepository repository) {
+        Queue<PooledCmisService> pool = getPool(repositoryId);
+        PooledCmisService service;
+        while ((service = pool.poll()) != null) {
+            if (service.repository == repository) {
+                service.inUse.set(true);
+                return service;
+            }
+            // repositories reloaded, the other idle services are stale too
+            pool.clear();
+        }
+        return new PooledCmisService(this, repositoryId, newService(repositoryId));
+    }
+
+    /**
+     * Returns a closed service to the pool.
+     *
+     * @since 7.3
+     */
+    protected void release(PooledCmisService service) {
+        if (!destroyed) {
+            getPool(service.repositoryId).offer(service);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true;
+        pools.clear();
+        NuxeoRepositories repositories = Framework.getService(NuxeoRepositories.class);
+        if (repositories != null) {
+            repositories.removeDeactivationListener(clearPools);
+        }
+        super.destroy();
+    }
+
+    /**
+     * Creates a new wrapped service.
+     * <p>
+     * Services are closed by the dispatcher at the end of each request, and may then be reused by a next request.
+     *
+     * @since 7.3
+     */
+    protected CallContextAwareCmisService newService(String repositoryId) {
+        NuxeoCmisService nuxeoCmisService = new NuxeoCmisService(repositoryId);
+        return (CallContextAwareCmisService) wrapperManager.wrap(nuxeoCmisService);
+    }
+
     @Override
     public File getTempDirectory() {
         return tempDirectory;
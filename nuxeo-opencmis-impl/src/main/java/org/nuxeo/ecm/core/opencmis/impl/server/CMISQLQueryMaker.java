@@ -55,6 +55,7 @@ import org.apache.chemistry.opencmis.server.support.query.QueryUtil;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.LifeCycleConstants;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.opencmis.impl.util.TypeManagerImpl;
@@ -315,19 +316,11 @@ public class CMISQLQueryMaker implements QueryMaker {
 
             // determine relevant primary types
 
-            List<String> types = new ArrayList<String>();
             TypeDefinition td = query.getTypeDefinitionFromQueryName(typeQueryName);
-            if (td.getParentTypeId() != null) {
+            List<String> types = new ArrayList<String>(typeManager.getTypeAndDescendantIds(td.getId()));
+            if (td.getParentTypeId() == null) {
                 // don't add abstract root types
-                types.add(td.getId());
-            }
-            LinkedList<TypeDefinitionContainer> typesTodo = new LinkedList<TypeDefinitionContainer>();
-            typesTodo.addAll(typeManager.getTypeDescendants(td.getId(), -1, Boolean.TRUE));
-            // recurse to get all subtypes
-            TypeDefinitionContainer tc;
-            while ((tc = typesTodo.poll()) != null) {
-                types.add(tc.getTypeDefinition().getId());
-                typesTodo.addAll(tc.getChildren());
+                types.remove(0);
             }
             if (types.isEmpty()) {
                 // shoudn't happen
@@ -1044,12 +1037,28 @@ public class CMISQLQueryMaker implements QueryMaker {
     // static to avoid keeping the whole QueryMaker in the returned object
     public static class CMISQLMapMaker implements MapMaker {
 
+        /**
+         * Number of recently used objects kept across rows.
+         *
+         * @since 7.3
+         */
+        public static final int DATA_CACHE_SIZE = 100;
+
         protected List<SqlColumn> realColumns;
 
         protected Map<String, ColumnReference> virtualColumns;
 
         protected NuxeoCmisService service;
 
+        /**
+         * Objects recently read for virtual columns, by id. With joins the same document is usually found on many rows
+         * (for instance a folder joined to its children), so it is only read once.
+         *
+         * @since 7.3
+         */
+        protected final Map<String, NuxeoObjectData> dataCache = new NuxeoRepository.LRUMap<String, NuxeoObjectData>(
+                DATA_CACHE_SIZE);
+
         public CMISQLMapMaker(List<SqlColumn> realColumns, Map<String, ColumnReference> virtualColumns,
                 NuxeoCmisService service) {
             this.realColumns = realColumns;
@@ -1106,17 +1115,22 @@ public class CMISQLQueryMaker implements QueryMaker {
                     // (main id always included in joins)
                     // TODO check what happens if cmis:objectId is aliased
                     String id = (String) map.get(getPropertyKey(qual, PropertyIds.OBJECT_ID));
-                    try {
-                        // reentrant call to the same session, but the MapMaker
-                        // is only called from the IterableQueryResult in
-                        // queryAndFetch which manipulates no session state
-                        // TODO constructing the DocumentModel (in
-                        // NuxeoObjectData) is expensive, try to get value
-                        // directly
-                        data = (NuxeoObjectData) service.getObject(service.getNuxeoRepository().getId(), id, null,
-                                null, null, null, null, null, null);
-                    } catch (CmisRuntimeException e) {
-                        log.error("Cannot get document: " + id, e);
+                    data = dataCache.get(id);
+                    if (data == null && !dataCache.containsKey(id)) {
+                        try {
+                            // reentrant call to the same session, but the MapMaker
+                            // is only called from the IterableQueryResult in
+                            // queryAndFetch which manipulates no session state
+                            // TODO constructing the DocumentModel (in
+                            // NuxeoObjectData) is expensive, try to get value
+                            // directly
+                            // don't go through getObject, no object info is needed
+                            DocumentModel doc = service.getDocumentModel(id);
+                            data = new NuxeoObjectData(service, doc, null, null, null, null, null, null, null);
+                        } catch (CmisRuntimeException e) {
+                            log.error("Cannot get document: " + id, e);
+                        }
+                        dataCache.put(id, data);
                     }
                     datas.put(qual, data);
                 }
@@ -30,8 +30,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.CommonTree;
 import org.antlr.runtime.tree.Tree;
 import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.chemistry.opencmis.commons.definitions.PropertyDefinition;
@@ -43,6 +47,7 @@ import org.apache.chemistry.opencmis.commons.exceptions.CmisInvalidArgumentExcep
 import org.apache.chemistry.opencmis.commons.exceptions.CmisRuntimeException;
 import org.apache.chemistry.opencmis.commons.impl.dataobjects.PropertyDecimalDefinitionImpl;
 import org.apache.chemistry.opencmis.server.support.query.AbstractPredicateWalker;
+import org.apache.chemistry.opencmis.server.support.query.CmisQlStrictLexer;
 import org.apache.chemistry.opencmis.server.support.query.CmisQueryWalker;
 import org.apache.chemistry.opencmis.server.support.query.CmisSelector;
 import org.apache.chemistry.opencmis.server.support.query.ColumnReference;
@@ -130,11 +135,217 @@ public class CMISQLtoNXQL {
     /** The non-real-columns we'll return as well. */
     protected Map<String, ColumnReference> virtualColumns = new LinkedHashMap<String, ColumnReference>();
 
+    /** Whether the translation only depends on the statement, and not on the repository content. */
+    protected boolean cacheable = true;
+
+    /** Whether the string literals are copied as is to the NXQL. */
+    protected boolean literalsCopied = true;
+
+    /**
+     * Marker used to replace string literals in the statements used as query plan keys.
+     */
+    protected static final char LITERAL_MARKER = '\u0001';
+
+    protected static final Pattern LITERAL_MARKER_PATTERN = Pattern.compile("'" + LITERAL_MARKER + "(\\d+)"
+            + LITERAL_MARKER + "'");
+
+    /** Plan cache entry for queries that cannot be cached. */
+    protected static final QueryPlan NOT_CACHEABLE = new QueryPlan(null, null, null, null, null);
+
+    /** Plan cache entry for queries whose string literals cannot be normalized. */
+    protected static final QueryPlan NOT_NORMALIZABLE = new QueryPlan(null, null, null, null, null);
+
+    /**
+     * A translated query, reusable for all the statements that only differ by their string literals.
+     *
+     * @since 7.3
+     */
+    public static class QueryPlan {
+
+        /** The NXQL fragments between the literals. */
+        protected final List<String> fragments;
+
+        /** The indexes of the literals, in NXQL order. */
+        protected final int[] literalIndexes;
+
+        protected final Map<String, String> realColumns;
+
+        protected final Map<String, ColumnReference> virtualColumns;
+
+        protected final Map<String, PropertyDefinition<?>> typeInfo;
+
+        public QueryPlan(List<String> fragments, int[] literalIndexes, Map<String, String> realColumns,
+                Map<String, ColumnReference> virtualColumns, Map<String, PropertyDefinition<?>> typeInfo) {
+            this.fragments = fragments;
+            this.literalIndexes = literalIndexes;
+            this.realColumns = realColumns;
+            this.virtualColumns = virtualColumns;
+            this.typeInfo = typeInfo;
+        }
+
+        public String getNXQL(List<String> literals) {
+            StringBuilder buf = new StringBuilder(fragments.get(0));
+            for (int i = 0; i < literalIndexes.length; i++) {
+                buf.append(NXQL.escapeString(literals.get(literalIndexes[i])));
+                buf.append(fragments.get(i + 1));
+            }
+            return buf.toString();
+        }
+    }
+
     /**
      * Gets the NXQL from a CMISQL query.
+     * <p>
+     * Translations are kept in the repository's query plan cache, if any, and shared between the statements that only
+     * differ by their string literals.
      */
     public String getNXQL(String cmisql, NuxeoCmisService service, Map<String, PropertyDefinition<?>> typeInfo,
             boolean searchAllVersions) throws QueryParseException {
+        Map<String, QueryPlan> queryPlans = service.repository.getQueryPlans();
+        if (queryPlans == null || cmisql.indexOf(LITERAL_MARKER) >= 0) {
+            return translate(cmisql, service, typeInfo, searchAllVersions);
+        }
+        List<String> literals = new ArrayList<String>();
+        String normalized = normalizeLiterals(cmisql, literals);
+        QueryPlan plan = null;
+        if (normalized != null) {
+            String key = searchAllVersions + " " + normalized;
+            plan = queryPlans.get(key);
+            if (plan == null) {
+                plan = makeQueryPlan(normalized, literals.size(), service, searchAllVersions);
+                queryPlans.put(key, plan);
+            }
+        }
+        if (plan == null || plan == NOT_NORMALIZABLE) {
+            // use the statement as is
+            literals.clear();
+            String key = searchAllVersions + " " + cmisql;
+            plan = queryPlans.get(key);
+            if (plan == null) {
+                plan = makeQueryPlan(cmisql, 0, service, searchAllVersions);
+                if (plan == NOT_NORMALIZABLE) {
+                    // translate again to get the error
+                    return translate(cmisql, service, typeInfo, searchAllVersions);
+                }
+                queryPlans.put(key, plan);
+            }
+        }
+        if (plan == NOT_CACHEABLE) {
+            return translate(cmisql, service, typeInfo, searchAllVersions);
+        }
+        this.typeInfo = typeInfo;
+        realColumns = plan.realColumns;
+        virtualColumns = plan.virtualColumns;
+        if (typeInfo != null) {
+            typeInfo.putAll(plan.typeInfo);
+        }
+        return plan.getNXQL(literals);
+    }
+
+    /**
+     * Translates a statement, whose string literals may have been replaced by markers, into a {@link QueryPlan}.
+     *
+     * @return the plan, {@link #NOT_CACHEABLE} or {@link #NOT_NORMALIZABLE}
+     */
+    protected static QueryPlan makeQueryPlan(String cmisql, int numLiterals, NuxeoCmisService service,
+            boolean searchAllVersions) {
+        CMISQLtoNXQL converter = new CMISQLtoNXQL();
+        Map<String, PropertyDefinition<?>> typeInfo = new HashMap<String, PropertyDefinition<?>>();
+        String nxql;
+        try {
+            nxql = converter.translate(cmisql, service, typeInfo, searchAllVersions);
+        } catch (QueryParseException | CmisRuntimeException e) {
+            return NOT_NORMALIZABLE;
+        }
+        if (!converter.cacheable) {
+            return NOT_CACHEABLE;
+        }
+        if (numLiterals > 0 && !converter.literalsCopied) {
+            return NOT_NORMALIZABLE;
+        }
+        // split the NXQL around the literal markers, which must each have been kept as a plain NXQL string
+        List<String> fragments = new ArrayList<String>();
+        int[] literalIndexes = new int[numLiterals];
+        Set<Integer> seen = new HashSet<Integer>();
+        Matcher m = LITERAL_MARKER_PATTERN.matcher(nxql);
+        int start = 0;
+        while (m.find()) {
+            int index = Integer.parseInt(m.group(1));
+            if (index >= numLiterals || !seen.add(Integer.valueOf(index))) {
+                return NOT_NORMALIZABLE;
+            }
+            literalIndexes[seen.size() - 1] = index;
+            fragments.add(nxql.substring(start, m.start()));
+            start = m.end();
+        }
+        fragments.add(nxql.substring(start));
+        if (seen.size() != numLiterals) {
+            return NOT_NORMALIZABLE;
+        }
+        for (String fragment : fragments) {
+            if (fragment.indexOf(LITERAL_MARKER) >= 0) {
+                // literal transformed by the translation
+                return NOT_NORMALIZABLE;
+            }
+        }
+        return new QueryPlan(fragments, literalIndexes, converter.realColumns, converter.virtualColumns, typeInfo);
+    }
+
+    /**
+     * Replaces the string literals of a statement by markers, except for timestamps.
+     *
+     * @param cmisql the statement
+     * @param literals the list filled with the values of the replaced literals
+     * @return the normalized statement, or {@code null} if it cannot be normalized
+     */
+    protected String normalizeLiterals(String cmisql, List<String> literals) {
+        AbstractPredicateWalker walker = new AnalyzingWalker();
+        StringBuilder buf = new StringBuilder(cmisql.length());
+        int len = cmisql.length();
+        int i = 0;
+        while (i < len) {
+            char c = cmisql.charAt(i);
+            if (c != QUOTE) {
+                buf.append(c);
+                i++;
+                continue;
+            }
+            // find the end of the literal
+            int end = i + 1;
+            while (end < len && cmisql.charAt(end) != QUOTE) {
+                if (cmisql.charAt(end) == '\\') {
+                    end++;
+                }
+                end++;
+            }
+            if (end >= len || (end + 1 < len && cmisql.charAt(end + 1) == QUOTE)) {
+                // unterminated or doubled quote, leave it to the parser
+                return null;
+            }
+            String literal = cmisql.substring(i, end + 1);
+            if (StringUtils.endsWithIgnoreCase(buf.toString().trim(), "TIMESTAMP")) {
+                buf.append(literal);
+            } else {
+                Tree node = new CommonTree(new CommonToken(CmisQlStrictLexer.STRING_LIT, literal));
+                literals.add((String) walker.walkString(node));
+                buf.append(QUOTE);
+                buf.append(LITERAL_MARKER);
+                buf.append(literals.size() - 1);
+                buf.append(LITERAL_MARKER);
+                buf.append(QUOTE);
+            }
+            i = end + 1;
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Translates a CMISQL query into NXQL.
+     *
+     * @since 7.3
+     */
+    protected String translate(String cmisql, NuxeoCmisService service, Map<String, PropertyDefinition<?>> typeInfo,
+            boolean searchAllVersions) throws QueryParseException {
         this.typeInfo = typeInfo;
         boolean searchLatestVersion = !searchAllVersions;
         TypeManagerImpl typeManager = service.repository.getTypeManager();
@@ -205,37 +416,7 @@ public class CMISQLtoNXQL {
             }
         } else {
             nxqlFrom = NXQL_DOCUMENT;
-            List<String> types = new ArrayList<String>();
-            if (fromType.getParentTypeId() != null) {
-                // don't add abstract root types
-                types.add(fromType.getId());
-            }
-            LinkedList<TypeDefinitionContainer> typesTodo = new LinkedList<TypeDefinitionContainer>();
-            typesTodo.addAll(typeManager.getTypeDescendants(fromType.getId(), -1, Boolean.TRUE));
-            // recurse to get all subtypes
-            TypeDefinitionContainer tc;
-            while ((tc = typesTodo.poll()) != null) {
-                types.add(tc.getTypeDefinition().getId());
-                typesTodo.addAll(tc.getChildren());
-            }
-            if (types.isEmpty()) {
-                // shoudn't happen
-                types = Collections.singletonList("__NOSUCHTYPE__");
-            }
-            // build clause
-            StringBuilder pt = new StringBuilder();
-            pt.append(NXQL.ECM_PRIMARYTYPE);
-            pt.append(" IN (");
-            for (Iterator<String> it = types.iterator(); it.hasNext();) {
-                pt.append(QUOTE);
-                pt.append(it.next());
-                pt.append(QUOTE);
-                if (it.hasNext()) {
-                    pt.append(", ");
-                }
-            }
-            pt.append(")");
-            whereClauses.add(pt.toString());
+            whereClauses.add(service.repository.getPrimaryTypeClause(fromType.getId()));
         }
 
         // lifecycle not deleted filter
@@ -294,7 +475,7 @@ public class CMISQLtoNXQL {
         return nxql;
     }
 
-    public IterableQueryResult getIterableQueryResult(IterableQueryResult it, NuxeoCmisService service) {
+    public NXQLtoCMISIterableQueryResult getIterableQueryResult(IterableQueryResult it, NuxeoCmisService service) {
         return new NXQLtoCMISIterableQueryResult(it, realColumns, virtualColumns, service);
     }
 
@@ -711,6 +892,7 @@ public class CMISQLtoNXQL {
         @Override
         public Boolean walkContains(Tree opNode, Tree qualNode, Tree queryNode) {
             String statement = (String) super.walkString(queryNode);
+            literalsCopied = false;
             String indexName = NXQL.ECM_FULLTEXT;
             // micro parsing of the fulltext statement to perform fulltext
             // search on a non default index
@@ -744,6 +926,8 @@ public class CMISQLtoNXQL {
         @Override
         public Boolean walkInTree(Tree opNode, Tree qualNode, Tree paramNode) {
             String id = (String) super.walkString(paramNode);
+            // the path depends on the repository content
+            cacheable = false;
             // don't use ecm:ancestorId because the Elasticsearch converter doesn't understand it
             // buf.append(NXQL.ECM_ANCESTORID);
             // buf.append(" = ");
@@ -832,6 +1016,8 @@ public class CMISQLtoNXQL {
     public static class NXQLtoCMISIterableQueryResult implements IterableQueryResult,
             Iterator<Map<String, Serializable>> {
 
+        public static final int DEFAULT_BATCH_SIZE = 100;
+
         protected IterableQueryResult it;
 
         protected Iterator<Map<String, Serializable>> iter;
@@ -842,6 +1028,18 @@ public class CMISQLtoNXQL {
 
         protected NuxeoCmisService service;
 
+        /** Total size if the underlying result was truncated, or -1. */
+        protected long totalSize = -1;
+
+        /** Number of first results not returned by the underlying result. */
+        protected long offset;
+
+        /** Number of rows read at once when their documents are needed. */
+        protected int batchSize = DEFAULT_BATCH_SIZE;
+
+        /** Rows read but not yet returned. */
+        protected final LinkedList<Map<String, Serializable>> buffer = new LinkedList<>();
+
         public NXQLtoCMISIterableQueryResult(IterableQueryResult it, Map<String, String> realColumns,
                 Map<String, ColumnReference> virtualColumns, NuxeoCmisService service) {
             this.it = it;
@@ -866,24 +1064,56 @@ public class CMISQLtoNXQL {
             return it.isLife();
         }
 
+        /**
+         * Sets the total number of results, when the underlying result only holds the first ones.
+         *
+         * @since 7.3
+         */
+        public void setTotalSize(long totalSize) {
+            this.totalSize = totalSize;
+        }
+
+        /**
+         * Sets the number of first results that the underlying result does not hold, positions are still counted from
+         * the first result.
+         *
+         * @since 7.3
+         */
+        public void setOffset(long offset) {
+            this.offset = offset;
+        }
+
+        /**
+         * Sets the number of rows read at once when virtual columns need their documents.
+         *
+         * @since 7.3
+         */
+        public void setBatchSize(int batchSize) {
+            this.batchSize = Math.max(batchSize, 1);
+        }
+
         @Override
         public long size() {
-            return it.size();
+            return totalSize == -1 ? it.size() : totalSize;
         }
 
         @Override
         public long pos() {
-            return it.pos();
+            return offset + it.pos() - buffer.size();
         }
 
         @Override
         public void skipTo(long pos) {
-            it.skipTo(pos);
+            if (pos < offset) {
+                throw new IllegalArgumentException("Cannot skip to " + pos + " before offset " + offset);
+            }
+            buffer.clear();
+            it.skipTo(pos - offset);
         }
 
         @Override
         public boolean hasNext() {
-            return iter.hasNext();
+            return !buffer.isEmpty() || iter.hasNext();
         }
 
         @Override
@@ -893,9 +1123,53 @@ public class CMISQLtoNXQL {
 
         @Override
         public Map<String, Serializable> next() {
-            // map of NXQL to value
-            Map<String, Serializable> nxqlMap = iter.next();
+            if (buffer.isEmpty()) {
+                fillBuffer();
+            }
+            return buffer.removeFirst();
+        }
+
+        /**
+         * Reads the next rows. When virtual columns need the full documents, a batch of rows is read so that their
+         * documents can be fetched all at once.
+         */
+        protected void fillBuffer() {
+            boolean needsDocuments = false;
+            for (ColumnReference col : virtualColumns.values()) {
+                if (!col.getPropertyId().equals(PropertyIds.BASE_TYPE_ID)) {
+                    needsDocuments = true;
+                    break;
+                }
+            }
+            int n = needsDocuments ? batchSize : 1;
+            List<String> ids = new ArrayList<String>(n);
+            do {
+                Map<String, Serializable> cmisMap = convertRealColumns(iter.next());
+                buffer.add(cmisMap);
+                if (needsDocuments) {
+                    // TODO check what happens if cmis:objectId is aliased
+                    String id = (String) cmisMap.get(PropertyIds.OBJECT_ID);
+                    if (id != null) {
+                        ids.add(id);
+                    }
+                }
+            } while (buffer.size() < n && iter.hasNext());
+
+            Map<String, NuxeoObjectData> datas;
+            if (ids.isEmpty()) {
+                datas = Collections.emptyMap();
+            } else {
+                // reentrant call to the same session, but the IterableQueryResult
+                // in queryAndFetch manipulates no session state
+                datas = service.getObjectDatas(ids);
+            }
+            for (Map<String, Serializable> cmisMap : buffer) {
+                NuxeoObjectData data = datas.get(cmisMap.get(PropertyIds.OBJECT_ID));
+                addVirtualColumns(cmisMap, data);
+            }
+        }
 
+        protected Map<String, Serializable> convertRealColumns(Map<String, Serializable> nxqlMap) {
             // find the CMIS keys and values
             Map<String, Serializable> cmisMap = new HashMap<>();
             for (Entry<String, String> en : realColumns.entrySet()) {
@@ -917,14 +1191,13 @@ public class CMISQLtoNXQL {
                 }
                 cmisMap.put(cmisCol, value);
             }
+            return cmisMap;
+        }
 
-            // virtual values
-            // map to store actual data for each qualifier
-            Map<String, NuxeoObjectData> datas = null;
+        protected void addVirtualColumns(Map<String, Serializable> cmisMap, NuxeoObjectData data) {
             for (Entry<String, ColumnReference> vc : virtualColumns.entrySet()) {
                 String key = vc.getKey();
                 ColumnReference col = vc.getValue();
-                String qual = col.getQualifier();
                 if (col.getPropertyId().equals(PropertyIds.BASE_TYPE_ID)) {
                     // special case, no need to get full Nuxeo Document
                     String typeId = (String) cmisMap.get(PropertyIds.OBJECT_TYPE_ID);
@@ -936,29 +1209,6 @@ public class CMISQLtoNXQL {
                     cmisMap.put(key, baseTypeId);
                     continue;
                 }
-                if (datas == null) {
-                    datas = new HashMap<String, NuxeoObjectData>(2);
-                }
-                NuxeoObjectData data = datas.get(qual);
-                if (data == null) {
-                    // find main id for this qualifier in the result set
-                    // (main id always included in joins)
-                    // TODO check what happens if cmis:objectId is aliased
-                    String id = (String) cmisMap.get(PropertyIds.OBJECT_ID);
-                    try {
-                        // reentrant call to the same session, but the MapMaker
-                        // is only called from the IterableQueryResult in
-                        // queryAndFetch which manipulates no session state
-                        // TODO constructing the DocumentModel (in
-                        // NuxeoObjectData) is expensive, try to get value
-                        // directly
-                        data = (NuxeoObjectData) service.getObject(service.getNuxeoRepository().getId(), id, null,
-                                null, null, null, null, null, null);
-                    } catch (CmisRuntimeException e) {
-                        log.error("Cannot get document: " + id, e);
-                    }
-                    datas.put(qual, data);
-                }
                 Serializable v;
                 if (data == null) {
                     // could not fetch
@@ -977,8 +1227,6 @@ public class CMISQLtoNXQL {
                 }
                 cmisMap.put(key, v);
             }
-
-            return cmisMap;
         }
     }
 
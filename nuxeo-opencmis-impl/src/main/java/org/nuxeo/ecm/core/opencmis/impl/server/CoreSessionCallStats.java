@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+
+/**
+ * Counts the calls made to a {@link CoreSession}, the queries, the rows they returned and the time spent in the
+ * session.
+ * <p>
+ * The counters are cumulative, callers compare {@link #snapshot}s taken before and after the work they measure.
+ *
+ * @since 7.3
+ */
+public class CoreSessionCallStats implements InvocationHandler {
+
+    protected final CoreSession session;
+
+    protected long calls;
+
+    protected long queries;
+
+    protected long rows;
+
+    protected long nanos;
+
+    protected CoreSessionCallStats(CoreSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Wraps a session so that its calls are counted, the stats are then available from {@link #getStats}.
+     */
+    public static CoreSession wrap(CoreSession session) {
+        return (CoreSession) Proxy.newProxyInstance(CoreSession.class.getClassLoader(),
+                new Class<?>[] { CoreSession.class }, new CoreSessionCallStats(session));
+    }
+
+    /**
+     * Gets the stats of a session returned by {@link #wrap}, or {@code null} for another session.
+     */
+    public static CoreSessionCallStats getStats(CoreSession session) {
+        if (session == null || !Proxy.isProxyClass(session.getClass())) {
+            return null;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(session);
+        return handler instanceof CoreSessionCallStats ? (CoreSessionCallStats) handler : null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            Object result = method.invoke(session, args);
+            if (method.getName().startsWith("query")) {
+                queries++;
+                if (result instanceof List) {
+                    rows += ((List<?>) result).size();
+                }
+            }
+            return result;
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            calls++;
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Gets the current values of the counters: calls, queries, rows and nanoseconds spent in the session.
+     */
+    public long[] snapshot() {
+        return new long[] { calls, queries, rows, nanos };
+    }
+
+}
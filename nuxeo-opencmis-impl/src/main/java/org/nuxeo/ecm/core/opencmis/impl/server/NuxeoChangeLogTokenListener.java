@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl.server;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.PostCommitEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Invalidates the latest change log token of the repositories where documents were created, modified or removed.
+ *
+ * @since 7.3
+ */
+public class NuxeoChangeLogTokenListener implements PostCommitEventListener {
+
+    @Override
+    public void handleEvent(EventBundle events) {
+        NuxeoRepositories repositories = Framework.getService(NuxeoRepositories.class);
+        if (repositories == null) {
+            return;
+        }
+        Set<String> done = new HashSet<>();
+        for (Event event : events) {
+            if (!(event.getContext() instanceof DocumentEventContext)) {
+                continue;
+            }
+            String repositoryName = event.getContext().getRepositoryName();
+            if (repositoryName != null && done.add(repositoryName)) {
+                repositories.invalidateLatestChangeLogToken(repositoryName);
+            }
+        }
+    }
+
+}
@@ -23,18 +23,20 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.regex.Matcher;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.chemistry.opencmis.client.api.ObjectId;
@@ -133,13 +135,13 @@ import org.nuxeo.ecm.core.api.security.ACE;
 import org.nuxeo.ecm.core.api.security.ACL;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.ecm.core.opencmis.impl.server.CMISQLtoNXQL.NXQLtoCMISIterableQueryResult;
 import org.nuxeo.ecm.core.opencmis.impl.util.ListUtils;
 import org.nuxeo.ecm.core.opencmis.impl.util.ListUtils.BatchedList;
 import org.nuxeo.ecm.core.opencmis.impl.util.SimpleImageInfo;
 import org.nuxeo.ecm.core.query.QueryParseException;
 import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.ecm.core.schema.FacetNames;
-import org.nuxeo.ecm.core.security.SecurityService;
 import org.nuxeo.ecm.platform.audit.api.AuditReader;
 import org.nuxeo.ecm.platform.audit.api.LogEntry;
 import org.nuxeo.ecm.platform.filemanager.api.FileManager;
@@ -150,6 +152,7 @@ import org.nuxeo.ecm.platform.mimetype.service.MimetypeRegistryService;
 import org.nuxeo.ecm.platform.rendition.Rendition;
 import org.nuxeo.ecm.platform.rendition.service.RenditionService;
 import org.nuxeo.elasticsearch.api.ElasticSearchService;
+import org.nuxeo.elasticsearch.api.EsResult;
 import org.nuxeo.elasticsearch.query.NxQueryBuilder;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.transaction.TransactionHelper;
@@ -187,14 +190,15 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
 
     protected CoreSession coreSession;
 
-    /* To avoid refetching it several times per session. */
-    protected String cachedChangeLogToken;
-
     protected CallContext callContext;
 
     /** Filter that hides HiddenInNavigation and deleted objects. */
     protected final Filter documentFilter;
 
+    /** Immutable, so shared by all the services. */
+    protected static final Filter DOCUMENT_FILTER = new CompoundFilter(new FacetFilter(
+            FacetNames.HIDDEN_IN_NAVIGATION, false), new LifeCycleFilter(LifeCycleConstants.DELETED_STATE, false));
+
     protected final Set<String> readPermissions;
 
     protected final Set<String> writePermissions;
@@ -235,14 +239,17 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
     }
 
     protected NuxeoCmisService(CoreSession coreSession, String repositoryName) {
-        this.coreSession = coreSession;
         coreSessionOwned = coreSession == null;
         repository = getNuxeoRepository(repositoryName);
+        this.coreSession = instrument(coreSession);
         documentFilter = getDocumentFilter();
-        SecurityService securityService = Framework.getService(SecurityService.class);
-        readPermissions = new HashSet<>(Arrays.asList(securityService.getPermissionsToCheck(SecurityConstants.READ)));
-        writePermissions = new HashSet<>(
-                Arrays.asList(securityService.getPermissionsToCheck(SecurityConstants.READ_WRITE)));
+        if (repository == null) {
+            readPermissions = Collections.emptySet();
+            writePermissions = Collections.emptySet();
+        } else {
+            readPermissions = repository.getReadPermissions();
+            writePermissions = repository.getWritePermissions();
+        }
     }
 
     // called in a finally block from dispatcher
@@ -253,6 +260,9 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             coreSession = null;
         }
         clearObjectInfos();
+        prefetchedDocuments = null;
+        // the service may be kept for another request
+        callContext = null;
     }
 
     @Override
@@ -304,6 +314,25 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         return coreSession;
     }
 
+    /**
+     * Wraps the session to count its calls, if slow calls are logged.
+     */
+    protected CoreSession instrument(CoreSession coreSession) {
+        if (coreSession == null || repository == null || repository.getSlowCallThreshold() <= 0) {
+            return coreSession;
+        }
+        return CoreSessionCallStats.wrap(coreSession);
+    }
+
+    /**
+     * Gets the statistics about the calls made to the session, or {@code null} if they are not recorded.
+     *
+     * @since 7.3
+     */
+    public CoreSessionCallStats getCallStats() {
+        return CoreSessionCallStats.getStats(coreSession);
+    }
+
     public BindingsObjectFactory getObjectFactory() {
         return objectFactory;
     }
@@ -317,20 +346,18 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
     public void setCallContext(CallContext callContext) {
         close();
         this.callContext = callContext;
-        if (coreSessionOwned) {
+        if (coreSessionOwned && callContext != null) {
             // for non-local binding, the principal is found
             // in the login stack
             String username = callContext.getBinding().equals(CallContext.BINDING_LOCAL) ? callContext.getUsername()
                     : null;
-            coreSession = repository == null ? null : openCoreSession(repository.getId(), username);
+            coreSession = repository == null ? null : instrument(openCoreSession(repository.getId(), username));
         }
     }
 
     /** Gets the filter that hides HiddenInNavigation and deleted objects. */
     protected Filter getDocumentFilter() {
-        Filter facetFilter = new FacetFilter(FacetNames.HIDDEN_IN_NAVIGATION, false);
-        Filter lcFilter = new LifeCycleFilter(LifeCycleConstants.DELETED_STATE, false);
-        return new CompoundFilter(facetFilter, lcFilter);
+        return DOCUMENT_FILTER;
     }
 
     protected String getIdFromDocumentRef(DocumentRef ref) throws ClientException {
@@ -343,7 +370,6 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
 
     protected void save() throws ClientException {
         coreSession.save();
-        cachedChangeLogToken = null;
     }
 
     /* This is the only method that does not have a repositoryId / coreSession. */
@@ -360,24 +386,28 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
 
     @Override
     public RepositoryInfo getRepositoryInfo(String repositoryId, ExtensionsData extension) {
-        String latestChangeLogToken;
-        if (cachedChangeLogToken != null) {
-            latestChangeLogToken = cachedChangeLogToken;
-        } else {
-            latestChangeLogToken = getLatestChangeLogToken(repositoryId);
-            cachedChangeLogToken = latestChangeLogToken;
-        }
+        String latestChangeLogToken = getLatestChangeLogToken(repositoryId);
         NuxeoRepository repository = getNuxeoRepository(repositoryId);
         return repository.getRepositoryInfo(latestChangeLogToken, callContext);
     }
 
+    /**
+     * Checks if the results are returned to a local caller, which may modify them. Remote bindings only serialize the
+     * results, so shared structures can be returned without copying them.
+     */
+    protected boolean isLocalBinding() {
+        return callContext == null || CallContext.BINDING_LOCAL.equals(callContext.getBinding());
+    }
+
     @Override
     public TypeDefinition getTypeDefinition(String repositoryId, String typeId, ExtensionsData extension) {
         TypeDefinition type = repository.getTypeDefinition(typeId);
         if (type == null) {
             throw new CmisInvalidArgumentException("No such type: " + typeId);
         }
-        // TODO copy only when local binding
+        if (!isLocalBinding()) {
+            return type;
+        }
         // clone
         return WSConverter.convert(WSConverter.convert(type));
 
@@ -387,7 +417,9 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
     public TypeDefinitionList getTypeChildren(String repositoryId, String typeId, Boolean includePropertyDefinitions,
             BigInteger maxItems, BigInteger skipCount, ExtensionsData extension) {
         TypeDefinitionList types = repository.getTypeChildren(typeId, includePropertyDefinitions, maxItems, skipCount);
-        // TODO copy only when local binding
+        if (!isLocalBinding()) {
+            return types;
+        }
         // clone
         return WSConverter.convert(WSConverter.convert(types));
     }
@@ -397,14 +429,20 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             Boolean includePropertyDefinitions, ExtensionsData extension) {
         int d = depth == null ? DEFAULT_TYPE_LEVELS : depth.intValue();
         List<TypeDefinitionContainer> types = repository.getTypeDescendants(typeId, d, includePropertyDefinitions);
+        if (!isLocalBinding()) {
+            return types;
+        }
         // clone
-        // TODO copy only when local binding
         List<CmisTypeContainer> tmp = new ArrayList<CmisTypeContainer>(types.size());
         WSConverter.convertTypeContainerList(types, tmp);
         return WSConverter.convertTypeContainerList(tmp);
     }
 
     protected DocumentModel getDocumentModel(String id) {
+        DocumentModel prefetched = getPrefetchedDocument(id);
+        if (prefetched != null) {
+            return prefetched;
+        }
         DocumentRef docRef = new IdRef(id);
         try {
             if (!coreSession.exists(docRef)) {
@@ -420,6 +458,58 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         }
     }
 
+    /**
+     * Gets the documents with the given ids, by id, fetching the ones not already fetched using a single query.
+     * Documents that don't exist, aren't readable or are filtered out are absent from the result.
+     *
+     * @since 7.3
+     */
+    protected Map<String, DocumentModel> getDocumentModels(Collection<String> ids) {
+        Map<String, DocumentModel> docs = new HashMap<String, DocumentModel>();
+        List<String> toFetch = new ArrayList<String>(ids.size());
+        for (String id : ids) {
+            DocumentModel prefetched = getPrefetchedDocument(id);
+            if (prefetched != null) {
+                docs.put(id, prefetched);
+            } else {
+                toFetch.add(id);
+            }
+        }
+        if (toFetch.isEmpty()) {
+            return docs;
+        }
+        for (DocumentModel doc : queryDocumentModels(toFetch)) {
+            if (!isFilteredOut(doc)) {
+                docs.put(doc.getId(), doc);
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Fetches the documents with the given ids using a single query. Documents that don't exist or aren't readable are
+     * absent from the result.
+     *
+     * @since 7.3
+     */
+    protected DocumentModelList queryDocumentModels(Collection<String> ids) {
+        StringBuilder query = new StringBuilder("SELECT * FROM Document WHERE ");
+        query.append(NXQL.ECM_UUID);
+        query.append(" IN (");
+        for (Iterator<String> it = ids.iterator(); it.hasNext();) {
+            query.append(NXQL.escapeString(it.next()));
+            if (it.hasNext()) {
+                query.append(", ");
+            }
+        }
+        query.append(')');
+        try {
+            return coreSession.query(query.toString());
+        } catch (ClientException e) {
+            throw new CmisRuntimeException(e.toString(), e);
+        }
+    }
+
     @Override
     public NuxeoObjectData getObject(String repositoryId, String objectId, String filter,
             Boolean includeAllowableActions, IncludeRelationships includeRelationships, String renditionFilter,
@@ -431,6 +521,26 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         return data;
     }
 
+    /**
+     * Gets the object datas for several documents, fetched using a single query.
+     * <p>
+     * Documents that don't exist or are filtered out are absent from the returned map.
+     *
+     * @param ids the document ids
+     * @return a map of id to object data, with default inclusion parameters
+     * @since 7.3
+     */
+    protected Map<String, NuxeoObjectData> getObjectDatas(Collection<String> ids) {
+        Map<String, NuxeoObjectData> datas = new HashMap<String, NuxeoObjectData>();
+        for (DocumentModel doc : queryDocumentModels(ids)) {
+            if (isFilteredOut(doc)) {
+                continue;
+            }
+            datas.put(doc.getId(), new NuxeoObjectData(this, doc, null, null, null, null, null, null, null));
+        }
+        return datas;
+    }
+
     /**
      * Checks if the doc should be ignored because it is "invisible" (deleted, hidden in navigation).
      */
@@ -841,21 +951,24 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
     @Override
     public AllowableActions getAllowableActions(String repositoryId, String objectId, ExtensionsData extension) {
         DocumentModel doc = getDocumentModel(objectId);
-        return NuxeoObjectData.getAllowableActions(doc, false);
+        return NuxeoObjectData.getAllowableActions(coreSession, doc, false);
     }
 
     @Override
     public ContentStream getContentStream(String repositoryId, String objectId, String streamId, BigInteger offset,
             BigInteger length, ExtensionsData extension) {
-        // TODO offset, length
         if (streamId == null) {
             DocumentModel doc = getDocumentModel(objectId);
-            ContentStream cs = NuxeoPropertyData.getContentStream(doc);
+            ContentStream cs = NuxeoPropertyData.getContentStream(doc, offset, length);
             if (cs != null) {
+                if (cs instanceof NuxeoContentStream) {
+                    prepareSendfile((NuxeoContentStream) cs);
+                }
                 return cs;
             }
             throw new CmisConstraintException("No content stream: " + objectId);
         }
+        // TODO offset, length for renditions
         try {
             String renditionName = streamId.replaceAll("^" + REND_STREAM_RENDITION_PREFIX, "");
             ContentStream cs = getRenditionServiceStream(objectId, renditionName);
@@ -868,6 +981,24 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         throw new CmisInvalidArgumentException("Invalid stream id: " + streamId);
     }
 
+    /**
+     * Lets the servlet container send file-backed content itself, if enabled and supported by the container.
+     *
+     * @since 7.3
+     */
+    protected void prepareSendfile(NuxeoContentStream cs) {
+        if (callContext == null || !Framework.isBooleanPropertyTrue(NuxeoContentStream.SENDFILE_PROP)) {
+            return;
+        }
+        HttpServletRequest request = (HttpServletRequest) callContext.get(CallContext.HTTP_SERVLET_REQUEST);
+        HttpServletResponse response = (HttpServletResponse) callContext.get(CallContext.HTTP_SERVLET_RESPONSE);
+        if (request == null || response == null
+                || !Boolean.TRUE.equals(request.getAttribute(NuxeoContentStream.SENDFILE_SUPPORT_ATTR))) {
+            return;
+        }
+        cs.setSendfile(request, response);
+    }
+
     /**
      * @deprecated since 7.3. The thumbnail is now a default rendition, see NXP-16662.
      */
@@ -1037,6 +1168,9 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
 
     protected Map<String, ObjectInfo> objectInfos;
 
+    /** Documents already fetched while collecting object infos, to avoid fetching them again. */
+    protected Map<String, DocumentModel> prefetchedDocuments;
+
     // part of CMIS API and of ObjectInfoHandler
     @Override
     public ObjectInfo getObjectInfo(String repositoryId, String objectId) {
@@ -1086,6 +1220,44 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         }
     }
 
+    /**
+     * Collects object infos for documents that have already been fetched, along with their parent.
+     * <p>
+     * The documents are not re-fetched from the session while computing the object infos.
+     *
+     * @since 7.3
+     */
+    protected void collectPrefetchedObjectInfos(String repositoryId, DocumentModel parent, List<DocumentModel> docs) {
+        if (!collectObjectInfos || !callContext.isObjectInfoRequired()) {
+            return;
+        }
+        Map<String, DocumentModel> previous = prefetchedDocuments;
+        prefetchedDocuments = new HashMap<String, DocumentModel>();
+        if (previous != null) {
+            prefetchedDocuments.putAll(previous);
+        }
+        prefetchedDocuments.put(parent.getId(), parent);
+        for (DocumentModel doc : docs) {
+            prefetchedDocuments.put(doc.getId(), doc);
+        }
+        try {
+            for (DocumentModel doc : docs) {
+                getObjectInfo(repositoryId, doc.getId());
+            }
+            getObjectInfo(repositoryId, parent.getId());
+        } finally {
+            prefetchedDocuments = previous;
+        }
+    }
+
+    /**
+     * Gets a document already fetched by the current operation, or {@code null} if it has to be fetched from the
+     * session.
+     */
+    protected DocumentModel getPrefetchedDocument(String id) {
+        return prefetchedDocuments == null ? null : prefetchedDocuments.get(id);
+    }
+
     @Override
     public void addObjectInfo(ObjectInfo info) {
         // ObjectInfoHandler, unused here
@@ -1327,21 +1499,17 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             throw new CmisInvalidArgumentException("Missing change log token holder");
         }
         String changeLogToken = changeLogTokenHolder.getValue();
-        long minDate;
+        long minId;
         if (changeLogToken == null) {
-            minDate = 0;
+            minId = 0;
         } else {
             try {
-                minDate = Long.parseLong(changeLogToken);
+                minId = Long.parseLong(changeLogToken);
             } catch (NumberFormatException e) {
                 throw new CmisInvalidArgumentException("Invalid change log token");
             }
         }
         try {
-            AuditReader reader = Framework.getService(AuditReader.class);
-            if (reader == null) {
-                throw new CmisRuntimeException("Cannot find audit service");
-            }
             int max = maxItems == null ? -1 : maxItems.intValue();
             if (max <= 0) {
                 max = DEFAULT_CHANGE_LOG_SIZE;
@@ -1349,37 +1517,26 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             if (max > MAX_CHANGE_LOG_SIZE) {
                 max = MAX_CHANGE_LOG_SIZE;
             }
-            List<ObjectData> ods = null;
-            // retry with increasingly larger page size if some items are
-            // skipped
-            for (int scale = 1; scale < 128; scale *= 2) {
-                int pageSize = max * scale + 1;
-                if (pageSize < 0) { // overflow
-                    pageSize = Integer.MAX_VALUE;
-                }
-                ods = readAuditLog(repositoryId, minDate, max, pageSize);
-                if (ods != null) {
-                    break;
-                }
-                if (pageSize == Integer.MAX_VALUE) {
-                    break;
-                }
-            }
-            if (ods == null) {
-                // couldn't find enough, too many items were skipped
-                ods = Collections.emptyList();
-
+            List<LogEntry> entries = readAuditLog(repositoryId, minId, max + 1);
+            if (entries.isEmpty() && minId > 0) {
+                checkChangeLogToken(repositoryId, minId);
             }
-            boolean hasMoreItems = ods.size() > max;
+            boolean hasMoreItems = entries.size() > max;
             if (hasMoreItems) {
-                ods = ods.subList(0, max);
+                entries = entries.subList(0, max);
+            }
+            List<ObjectData> ods = new ArrayList<ObjectData>(entries.size());
+            for (LogEntry entry : entries) {
+                ObjectData od = getLogEntryObjectData(entry);
+                if (od != null) {
+                    ods.add(od);
+                }
             }
             String latestChangeLogToken;
-            if (ods.size() == 0) {
+            if (entries.isEmpty()) {
                 latestChangeLogToken = null;
             } else {
-                ObjectData last = ods.get(ods.size() - 1);
-                latestChangeLogToken = String.valueOf(last.getChangeEventInfo().getChangeTime().getTimeInMillis());
+                latestChangeLogToken = String.valueOf(entries.get(entries.size() - 1).getId());
             }
             ObjectListImpl ol = new ObjectListImpl();
             ol.setHasMoreItems(Boolean.valueOf(hasMoreItems));
@@ -1387,49 +1544,65 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             ol.setNumItems(BigInteger.valueOf(-1));
             changeLogTokenHolder.setValue(latestChangeLogToken);
             return ol;
+        } catch (CmisBaseException e) {
+            throw e;
         } catch (Exception e) {
             throw new CmisRuntimeException(e.toString(), e);
         }
     }
 
     /**
-     * Reads at most max+1 entries from the audit log.
+     * Checks that a change log token is not past the latest change. This is the case for the tokens issued before the
+     * audit entry id was used (event dates), with which clients would otherwise never see new changes.
      *
-     * @return null if not enough elements found with the current page size
+     * @throws CmisInvalidArgumentException if the client must read the changes again from the start
+     * @since 7.3
      */
-    protected List<ObjectData> readAuditLog(String repositoryId, long minDate, int max, int pageSize) {
+    protected void checkChangeLogToken(String repositoryId, long minId) {
+        if (minId <= Long.parseLong(getLatestChangeLogToken(repositoryId))) {
+            return;
+        }
+        // the token in memory may be late, check with the audit
+        NuxeoRepository repository = getNuxeoRepository(repositoryId);
+        long generation = repository.getChangeLogTokenGeneration();
+        String latest = readLatestChangeLogToken(repository);
+        repository.setLatestChangeLogToken(latest, generation);
+        if (minId > Long.parseLong(latest)) {
+            throw new CmisInvalidArgumentException("Invalid change log token: " + minId);
+        }
+    }
+
+    /**
+     * Reads at most pageSize document change entries from the audit log, starting at the given entry id (inclusive).
+     * <p>
+     * The change log token is the audit log entry id, which is monotonic, so this is a single range scan. Entries for
+     * types not exposed through CMIS are filtered in the query.
+     *
+     * @since 7.3
+     */
+    protected List<LogEntry> readAuditLog(String repositoryId, long minId, int pageSize) {
         AuditReader reader = Framework.getLocalService(AuditReader.class);
         if (reader == null) {
             throw new CmisRuntimeException("Cannot find audit service");
         }
-        List<ObjectData> ods = new ArrayList<ObjectData>();
         String query = "FROM LogEntry log" //
-                + " WHERE log.eventDate >= :minDate" //
+                + " WHERE log.id >= :minId" //
                 + "   AND log.eventId IN (:evCreated, :evModified, :evRemoved)" //
                 + "   AND log.repositoryId = :repoId" //
-                + " ORDER BY log.eventDate";
+                + "   AND log.docType IN (:docTypes)" //
+                + " ORDER BY log.id";
         Map<String, Object> params = new HashMap<String, Object>();
-        params.put("minDate", new Date(minDate));
+        params.put("minId", Long.valueOf(minId));
         params.put("evCreated", DOCUMENT_CREATED);
         params.put("evModified", DOCUMENT_UPDATED);
         params.put("evRemoved", DOCUMENT_REMOVED);
         params.put("repoId", repositoryId);
-        List<?> entries = reader.nativeQuery(query, params, 1, pageSize);
-        for (Object entry : entries) {
-            ObjectData od = getLogEntryObjectData((LogEntry) entry);
-            if (od != null) {
-                ods.add(od);
-                if (ods.size() > max) {
-                    // enough collected
-                    return ods;
-                }
-            }
-        }
-        if (entries.size() < pageSize) {
-            // end of audit log
-            return ods;
+        params.put("docTypes", repository.getChangeLogDocTypes());
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        for (Object entry : reader.nativeQuery(query, params, 1, pageSize)) {
+            entries.add((LogEntry) entry);
         }
-        return null;
+        return entries;
     }
 
     /**
@@ -1470,7 +1643,21 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         return od;
     }
 
+    /**
+     * Gets the latest change log token, from memory if it has not been invalidated by changes since it was read.
+     */
     protected String getLatestChangeLogToken(String repositoryId) {
+        NuxeoRepository repository = getNuxeoRepository(repositoryId);
+        long generation = repository.getChangeLogTokenGeneration();
+        String token = repository.getLatestChangeLogToken();
+        if (token == null) {
+            token = readLatestChangeLogToken(repository);
+            repository.setLatestChangeLogToken(token, generation);
+        }
+        return token;
+    }
+
+    protected String readLatestChangeLogToken(NuxeoRepository repository) {
         try {
             AuditReader reader = Framework.getService(AuditReader.class);
             if (reader == null) {
@@ -1478,20 +1665,23 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
                 return "0";
                 // throw new CmisRuntimeException("Cannot find audit service");
             }
-            // TODO XXX repositoryId as well
             Map<String, Object> params = new HashMap<String, Object>();
             String query = "FROM LogEntry log" //
                     + " WHERE log.eventId IN (:evCreated, :evModified, :evRemoved)" //
-                    + " ORDER BY log.eventDate DESC";
+                    + "   AND log.repositoryId = :repoId" //
+                    + "   AND log.docType IN (:docTypes)" //
+                    + " ORDER BY log.id DESC";
             params.put("evCreated", DOCUMENT_CREATED);
             params.put("evModified", DOCUMENT_UPDATED);
             params.put("evRemoved", DOCUMENT_REMOVED);
+            params.put("repoId", repository.getId());
+            params.put("docTypes", repository.getChangeLogDocTypes());
             List<?> entries = reader.nativeQuery(query, params, 1, 1);
             if (entries.size() == 0) {
                 return "0";
             }
             LogEntry logEntry = (LogEntry) entries.get(0);
-            return String.valueOf(logEntry.getEventDate().getTime());
+            return String.valueOf(logEntry.getId());
         } catch (Exception e) {
             throw new CmisRuntimeException(e.toString(), e);
         }
@@ -1509,30 +1699,38 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         if (max <= 0) {
             max = DEFAULT_QUERY_SIZE;
         }
-        long numItems;
+        BigInteger numItems;
+        boolean hasMoreItems;
         List<ObjectData> list;
         IterableQueryResult res = null;
         try {
             Map<String, PropertyDefinition<?>> typeInfo = new HashMap<String, PropertyDefinition<?>>();
             // searchAllVersions defaults to false, spec 2.2.6.1.1
-            res = queryAndFetch(statement, Boolean.TRUE.equals(searchAllVersions), typeInfo);
+            // one more than needed to find if there are more items
+            res = queryAndFetch(statement, Boolean.TRUE.equals(searchAllVersions), typeInfo, skip, skip + max + 1);
+            if (res instanceof NXQLtoCMISIterableQueryResult
+                    && max + 1 < NXQLtoCMISIterableQueryResult.DEFAULT_BATCH_SIZE) {
+                // skipped rows are not converted, only fetch the documents of the returned ones
+                ((NXQLtoCMISIterableQueryResult) res).setBatchSize((int) (max + 1));
+            }
 
             // convert from Nuxeo to CMIS format
             list = new ArrayList<ObjectData>();
             if (skip > 0) {
                 res.skipTo(skip);
             }
-            for (Map<String, Serializable> map : res) {
-                ObjectDataImpl od = makeObjectData(map, typeInfo);
+            boolean needsAllowableActions = Boolean.TRUE.equals(includeAllowableActions);
+            boolean needsRenditions = NuxeoObjectData.needsRenditions(renditionFilter);
+            Map<String, ObjectDataImpl> needingDocs = new LinkedHashMap<String, ObjectDataImpl>();
+            Iterator<Map<String, Serializable>> it = res.iterator();
+            while (it.hasNext()) {
+                ObjectDataImpl od = makeObjectData(it.next(), typeInfo);
 
                 // optional stuff
                 String id = od.getId();
                 if (id != null) { // null if JOIN in original query
-                    DocumentModel doc = null;
-                    if (Boolean.TRUE.equals(includeAllowableActions)) {
-                        doc = getDocumentModel(id);
-                        AllowableActions allowableActions = NuxeoObjectData.getAllowableActions(doc, false);
-                        od.setAllowableActions(allowableActions);
+                    if (needsAllowableActions || needsRenditions) {
+                        needingDocs.put(id, od);
                     }
                     if (includeRelationships != null && includeRelationships != IncludeRelationships.NONE) {
                         // TODO get relationships using a JOIN
@@ -1541,14 +1739,6 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
                                 this);
                         od.setRelationships(relationships);
                     }
-                    if (NuxeoObjectData.needsRenditions(renditionFilter)) {
-                        if (doc == null) {
-                            doc = getDocumentModel(id);
-                        }
-                        List<RenditionData> renditions = NuxeoObjectData.getRenditions(doc, renditionFilter, null,
-                                null, callContext);
-                        od.setRenditions(renditions);
-                    }
                 }
 
                 list.add(od);
@@ -1556,7 +1746,40 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
                     break;
                 }
             }
-            numItems = res.size();
+
+            // fetch all the documents of the page at once
+            if (!needingDocs.isEmpty()) {
+                Map<String, DocumentModel> docs = getDocumentModels(needingDocs.keySet());
+                for (Entry<String, ObjectDataImpl> en : needingDocs.entrySet()) {
+                    String id = en.getKey();
+                    ObjectDataImpl od = en.getValue();
+                    DocumentModel doc = docs.get(id);
+                    if (doc == null) {
+                        doc = getDocumentModel(id); // throws not found
+                    }
+                    if (needsAllowableActions) {
+                        od.setAllowableActions(NuxeoObjectData.getAllowableActions(coreSession, doc, false));
+                    }
+                    if (needsRenditions) {
+                        List<RenditionData> renditions = NuxeoObjectData.getRenditions(doc, renditionFilter, null,
+                                null, callContext);
+                        od.setRenditions(renditions);
+                    }
+                }
+            }
+            if (repository.countQueryResults()) {
+                long size = res.size();
+                numItems = BigInteger.valueOf(size);
+                hasMoreItems = size > skip + list.size();
+            } else {
+                // avoid counting all the results, just check if there are more
+                hasMoreItems = it.hasNext();
+                if (hasMoreItems || (skip > 0 && list.isEmpty())) {
+                    numItems = null; // unknown
+                } else {
+                    numItems = BigInteger.valueOf(skip + list.size());
+                }
+            }
         } catch (ClientException e) {
             throw new CmisRuntimeException(e.getMessage(), e);
         } finally {
@@ -1566,8 +1789,8 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         }
         ObjectListImpl objList = new ObjectListImpl();
         objList.setObjects(list);
-        objList.setNumItems(BigInteger.valueOf(numItems));
-        objList.setHasMoreItems(Boolean.valueOf(numItems > skip + list.size()));
+        objList.setNumItems(numItems);
+        objList.setHasMoreItems(Boolean.valueOf(hasMoreItems));
         return objList;
     }
 
@@ -1586,6 +1809,31 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
      */
     public IterableQueryResult queryAndFetch(String query, boolean searchAllVersions,
             Map<String, PropertyDefinition<?>> typeInfo) {
+        return queryAndFetch(query, searchAllVersions, typeInfo, 0, 0);
+    }
+
+    /**
+     * Makes a CMISQL query to the repository and returns an {@link IterableQueryResult}, which MUST be closed in a
+     * {@code finally} block.
+     * <p>
+     * When a limit is specified, only the first results may be returned by the backend (this is the case for
+     * Elasticsearch), but {@link IterableQueryResult#size} still returns the total number of results. Likewise the
+     * results before the offset may not be returned, but {@link IterableQueryResult#skipTo} still takes positions
+     * counted from the first result.
+     *
+     * @param query the CMISQL query
+     * @param searchAllVersions whether to search all versions ({@code true}) or only the latest version ({@code false}
+     *            ), for versionable types
+     * @param typeInfo a map filled with type information for each returned property, or {@code null} if no such info is
+     *            needed
+     * @param offset the number of first results skipped by the caller
+     * @param limit the number of results needed by the caller, including the skipped ones, or 0 for all
+     * @return an {@link IterableQueryResult}, which MUST be closed in a {@code finally} block
+     * @throws CmisRuntimeException if the query cannot be parsed or is invalid
+     * @since 7.3
+     */
+    protected IterableQueryResult queryAndFetch(String query, boolean searchAllVersions,
+            Map<String, PropertyDefinition<?>> typeInfo, long offset, long limit) {
         if (repository.supportsJoins()) {
             // straight to CoreSession as CMISQL, relies on proper QueryMaker
             return coreSession.queryAndFetch(query, CMISQLQueryMaker.TYPE, this, typeInfo,
@@ -1601,11 +1849,25 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             }
 
             IterableQueryResult it;
+            long totalSize = -1;
+            long esOffset = 0;
             try {
                 if (repository.useElasticsearch()) {
                     ElasticSearchService ess = Framework.getService(ElasticSearchService.class);
-                    NxQueryBuilder qb = new NxQueryBuilder(coreSession).nxql(nxql).limit(-1);
-                    it = ess.queryAndAggregate(qb).getRows();
+                    // ORDER BY is part of the NXQL, only fetch the hits of the requested page
+                    int esLimit = limit <= 0 || limit > Integer.MAX_VALUE ? -1 : (int) limit;
+                    NxQueryBuilder qb = new NxQueryBuilder(coreSession).nxql(nxql);
+                    if (esLimit != -1 && offset > 0 && offset < esLimit) {
+                        esOffset = offset;
+                        qb.offset((int) esOffset).limit(esLimit - (int) esOffset);
+                    } else {
+                        qb.limit(esLimit);
+                    }
+                    EsResult esResult = ess.queryAndAggregate(qb);
+                    it = esResult.getRows();
+                    if (esLimit != -1) {
+                        totalSize = esResult.getElasticsearchResponse().getHits().getTotalHits();
+                    }
                 } else {
                     it = coreSession.queryAndFetch(nxql, NXQL.NXQL);
                 }
@@ -1613,7 +1875,10 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
                 throw new CmisRuntimeException("Invalid query: CMISQL: " + query + ": " + e.toString(), e);
             }
             // wrap result
-            return converter.getIterableQueryResult(it, this);
+            NXQLtoCMISIterableQueryResult res = converter.getIterableQueryResult(it, this);
+            res.setTotalSize(totalSize);
+            res.setOffset(esOffset);
+            return res;
         }
     }
 
@@ -1687,6 +1952,22 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
                 includeRelationships, renditionFilter, includePathSegment, maxItems, skipCount, false);
     }
 
+    /**
+     * Gets the NXQL query returning the visible children matching the given parent clause.
+     */
+    protected static String getChildrenQuery(String parentClause, boolean folderOnly) {
+        return String.format("SELECT * FROM %s WHERE " // Folder/Document
+                + "%s AND " // ecm:parentId = 'folderId'
+                + "%s <> '%s' AND " // ecm:mixinType <> 'HiddenInNavigation'
+                + "%s <> '%s' AND " // ecm:currentLifeCycleState <> 'deleted'
+                + "%s = 0", // ecm:isProxy = 0
+                folderOnly ? "Folder" : "Document", //
+                parentClause, //
+                NXQL.ECM_MIXINTYPE, FacetNames.HIDDEN_IN_NAVIGATION, //
+                NXQL.ECM_LIFECYCLESTATE, LifeCycleConstants.DELETED_STATE, //
+                NXQL.ECM_ISPROXY);
+    }
+
     protected ObjectInFolderList getChildrenInternal(String repositoryId, String folderId, String filter,
             String orderBy, Boolean includeAllowableActions, IncludeRelationships includeRelationships,
             String renditionFilter, Boolean includePathSegment, BigInteger maxItems, BigInteger skipCount,
@@ -1698,16 +1979,7 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             return null;
         }
 
-        String query = String.format("SELECT * FROM %s WHERE " // Folder/Document
-                + "%s = '%s' AND " // ecm:parentId = 'folderId'
-                + "%s <> '%s' AND " // ecm:mixinType <> 'HiddenInNavigation'
-                + "%s <> '%s' AND " // ecm:currentLifeCycleState <> 'deleted'
-                + "%s = 0", // ecm:isProxy = 0
-                folderOnly ? "Folder" : "Document", //
-                NXQL.ECM_PARENTID, folderId, //
-                NXQL.ECM_MIXINTYPE, FacetNames.HIDDEN_IN_NAVIGATION, //
-                NXQL.ECM_LIFECYCLESTATE, LifeCycleConstants.DELETED_STATE, //
-                NXQL.ECM_ISPROXY);
+        String query = getChildrenQuery(NXQL.ECM_PARENTID + " = " + NXQL.escapeString(folderId), folderOnly);
         if (!StringUtils.isBlank(orderBy)) {
             CMISQLtoNXQL converter = new CMISQLtoNXQL();
             query += " ORDER BY " + converter.convertOrderBy(orderBy, repository.getTypeManager());
@@ -1738,7 +2010,6 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
                 oifd.setPathSegment(child.getName());
             }
             list.add(oifd);
-            collectObjectInfo(repositoryId, data.getId());
         }
 
         Boolean hasMoreItems;
@@ -1750,7 +2021,8 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         result.setObjects(list);
         result.setHasMoreItems(hasMoreItems);
         result.setNumItems(BigInteger.valueOf(children.totalSize()));
-        collectObjectInfo(repositoryId, folderId);
+        // children and folder are already loaded, reuse them
+        collectPrefetchedObjectInfos(repositoryId, folder, children);
         return result;
     }
 
@@ -1784,26 +2056,88 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
                 renditionFilter, includePathSegment, 0, levels, true);
     }
 
+    /**
+     * Gets the descendants of a folder.
+     * <p>
+     * Instead of querying the children of each folder separately, the subtree is fetched with a single path-based
+     * query, then assembled in memory up to the requested depth.
+     */
     protected List<ObjectInFolderContainer> getDescendantsInternal(String repositoryId, String folderId, String filter,
             Boolean includeAllowableActions, IncludeRelationships includeRelationships, String renditionFilter,
             Boolean includePathSegments, int level, int maxLevels, boolean folderOnly) {
         if (maxLevels != -1 && level >= maxLevels) {
             return null;
         }
-        ObjectInFolderList children = getChildrenInternal(repositoryId, folderId, filter, null,
-                includeAllowableActions, includeRelationships, renditionFilter, includePathSegments, null, null,
-                folderOnly);
+        DocumentModel folder = getDocumentModel(folderId);
+        if (!folder.isFolder()) {
+            return Collections.emptyList();
+        }
+
+        // whole subtree in one query, levels past the depth are cut when building the containers
+        String clause = NXQL.ECM_PATH + " STARTSWITH " + NXQL.escapeString(folder.getPathAsString());
+        DocumentModelList docs;
+        try {
+            docs = coreSession.query(getChildrenQuery(clause, folderOnly));
+        } catch (ClientException e) {
+            throw new CmisRuntimeException(e.toString(), e);
+        }
+
+        // group by parent
+        Map<String, List<DocumentModel>> childrenByParent = new HashMap<String, List<DocumentModel>>();
+        for (DocumentModel doc : docs) {
+            DocumentRef parentRef = doc.getParentRef();
+            if (parentRef == null || doc.getId().equals(folderId)) {
+                continue;
+            }
+            String parentId = parentRef instanceof IdRef ? ((IdRef) parentRef).value : null;
+            if (parentId == null) {
+                continue;
+            }
+            List<DocumentModel> children = childrenByParent.get(parentId);
+            if (children == null) {
+                childrenByParent.put(parentId, children = new ArrayList<DocumentModel>());
+            }
+            children.add(doc);
+        }
+
+        List<DocumentModel> descendants = new ArrayList<DocumentModel>(docs.size());
+        List<ObjectInFolderContainer> res = buildDescendants(folderId, childrenByParent, descendants, filter,
+                includeAllowableActions, includeRelationships, renditionFilter, includePathSegments, level, maxLevels);
+        collectPrefetchedObjectInfos(repositoryId, folder, descendants);
+        return res;
+    }
+
+    /**
+     * Builds the containers for the children of a folder, recursively, from documents already grouped by parent.
+     * Documents whose parent is not part of the tree (hidden or deleted) are thus ignored. The documents actually used
+     * are added to {@code descendants}.
+     */
+    protected List<ObjectInFolderContainer> buildDescendants(String folderId,
+            Map<String, List<DocumentModel>> childrenByParent, List<DocumentModel> descendants, String filter,
+            Boolean includeAllowableActions, IncludeRelationships includeRelationships, String renditionFilter,
+            Boolean includePathSegments, int level, int maxLevels) {
+        if (maxLevels != -1 && level >= maxLevels) {
+            return null;
+        }
+        List<DocumentModel> children = childrenByParent.get(folderId);
         if (children == null) {
             return Collections.emptyList();
         }
-        List<ObjectInFolderContainer> res = new ArrayList<ObjectInFolderContainer>(children.getObjects().size());
-        for (ObjectInFolderData child : children.getObjects()) {
+        List<ObjectInFolderContainer> res = new ArrayList<ObjectInFolderContainer>(children.size());
+        for (DocumentModel child : children) {
+            descendants.add(child);
+            NuxeoObjectData data = new NuxeoObjectData(this, child, filter, includeAllowableActions,
+                    includeRelationships, renditionFilter, Boolean.FALSE, Boolean.FALSE, null);
+            ObjectInFolderDataImpl oifd = new ObjectInFolderDataImpl();
+            oifd.setObject(data);
+            if (Boolean.TRUE.equals(includePathSegments)) {
+                oifd.setPathSegment(child.getName());
+            }
             ObjectInFolderContainerImpl oifc = new ObjectInFolderContainerImpl();
-            oifc.setObject(child);
-            // recurse
-            List<ObjectInFolderContainer> subChildren = getDescendantsInternal(repositoryId, child.getObject().getId(),
+            oifc.setObject(oifd);
+            List<ObjectInFolderContainer> subChildren = buildDescendants(child.getId(), childrenByParent, descendants,
                     filter, includeAllowableActions, includeRelationships, renditionFilter, includePathSegments,
-                    level + 1, maxLevels, folderOnly);
+                    level + 1, maxLevels);
             if (subChildren != null) {
                 oifc.setChildren(subChildren);
             }
@@ -1833,11 +2167,14 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
         String pathSegment;
         String parentId;
         try {
-            DocumentRef docRef = new IdRef(objectId);
-            if (!coreSession.exists(docRef)) {
-                throw new CmisObjectNotFoundException(objectId);
+            DocumentModel doc = getPrefetchedDocument(objectId);
+            if (doc == null) {
+                DocumentRef docRef = new IdRef(objectId);
+                if (!coreSession.exists(docRef)) {
+                    throw new CmisObjectNotFoundException(objectId);
+                }
+                doc = coreSession.getDocument(docRef);
             }
-            DocumentModel doc = coreSession.getDocument(docRef);
             if (isFilteredOut(doc)) {
                 throw new CmisObjectNotFoundException(objectId);
             }
@@ -1852,10 +2189,16 @@ public class NuxeoCmisService extends AbstractCmisService implements CallContext
             if (parentRef == null) { // placeless
                 return Collections.emptyList();
             }
-            if (!coreSession.exists(parentRef)) { // non-accessible
-                return Collections.emptyList();
+            DocumentModel parent = null;
+            if (parentRef instanceof IdRef) {
+                parent = getPrefetchedDocument(((IdRef) parentRef).value);
+            }
+            if (parent == null) {
+                if (!coreSession.exists(parentRef)) { // non-accessible
+                    return Collections.emptyList();
+                }
+                parent = coreSession.getDocument(parentRef);
             }
-            DocumentModel parent = coreSession.getDocument(parentRef);
             if (isFilteredOut(parent)) { // filtered out
                 return Collections.emptyList();
             }
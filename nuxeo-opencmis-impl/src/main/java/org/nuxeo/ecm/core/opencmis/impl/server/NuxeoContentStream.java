@@ -11,12 +11,17 @@
  */
 package org.nuxeo.ecm.core.opencmis.impl.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.GregorianCalendar;
 import java.util.List;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.chemistry.opencmis.commons.data.CacheHeaderContentStream;
 import org.apache.chemistry.opencmis.commons.data.CmisExtensionElement;
 import org.apache.chemistry.opencmis.commons.data.ContentStream;
@@ -31,10 +36,29 @@ public class NuxeoContentStream implements CacheHeaderContentStream, LastModifie
 
     public static long LAST_MODIFIED;
 
+    /**
+     * When true, file-backed content is sent by the servlet container using sendfile, if the container supports it.
+     *
+     * @since 7.3
+     */
+    public static final String SENDFILE_PROP = "org.nuxeo.cmis.sendfile";
+
+    public static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+
+    public static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+
+    public static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+
+    public static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     protected final Blob blob;
 
     protected final GregorianCalendar lastModified;
 
+    protected HttpServletRequest sendfileRequest;
+
+    protected HttpServletResponse sendfileResponse;
+
     public NuxeoContentStream(Blob blob, GregorianCalendar lastModified) {
         this.blob = blob;
         this.lastModified = lastModified;
@@ -60,15 +84,71 @@ public class NuxeoContentStream implements CacheHeaderContentStream, LastModifie
         return blob.getFilename();
     }
 
+    /**
+     * Gets the file backing the blob, or {@code null} if the blob is not file-backed.
+     *
+     * @since 7.3
+     */
+    public File getFile() {
+        return blob.getFile();
+    }
+
+    /**
+     * Gets the offset of the content in the blob.
+     *
+     * @since 7.3
+     */
+    public long getOffset() {
+        return 0;
+    }
+
+    /**
+     * Makes the content be sent by the servlet container using sendfile, when the stream is requested and the blob is
+     * file-backed.
+     * <p>
+     * The stream is only requested by the bindings once they have checked that the client doesn't already have the
+     * content (ETag, Last-Modified), so no file is sent for a Not Modified response.
+     * <p>
+     * Callers must only do this if the container advertised sendfile support in the request. If the blob file is
+     * missing, the blob stream is returned as usual.
+     *
+     * @since 7.3
+     */
+    public void setSendfile(HttpServletRequest request, HttpServletResponse response) {
+        sendfileRequest = request;
+        sendfileResponse = response;
+    }
+
     @Override
     public InputStream getStream() {
+        if (sendfileRequest != null) {
+            File file = getFile();
+            // the container needs an actual file, otherwise send the stream ourselves
+            if (file != null && file.isFile()) {
+                long start = getOffset();
+                long length = getLength();
+                if (length < 0) {
+                    length = file.length() - start;
+                }
+                sendfileRequest.setAttribute(SENDFILE_FILENAME_ATTR, file.getAbsolutePath());
+                sendfileRequest.setAttribute(SENDFILE_START_ATTR, Long.valueOf(start));
+                sendfileRequest.setAttribute(SENDFILE_END_ATTR, Long.valueOf(start + length));
+                sendfileResponse.setHeader("Content-Length", String.valueOf(length));
+                // the container sends the file itself
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        }
         try {
-            return blob.getStream();
+            return openStream();
         } catch (IOException e) {
             throw new CmisRuntimeException("Failed to get stream", e);
         }
     }
 
+    protected InputStream openStream() throws IOException {
+        return blob.getStream();
+    }
+
     @Override
     public List<CmisExtensionElement> getExtensions() {
         return null;
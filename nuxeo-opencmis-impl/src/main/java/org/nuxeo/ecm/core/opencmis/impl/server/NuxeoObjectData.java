@@ -67,6 +67,7 @@ import org.apache.chemistry.opencmis.commons.spi.BindingsObjectFactory;
 import org.apache.commons.lang.StringUtils;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.model.PropertyException;
@@ -121,8 +122,23 @@ public class NuxeoObjectData implements ObjectData {
 
     private static final int DEFAULT_MAX_RENDITIONS = 20;
 
+    /**
+     * Maximum number of thumbnail image infos kept in memory, 0 to disable the cache.
+     *
+     * @since 7.3
+     */
+    public static final String THUMBNAIL_INFO_CACHE_SIZE_PROP = "org.nuxeo.cmis.thumbnail.infocache.size";
+
+    public static final int DEFAULT_THUMBNAIL_INFO_CACHE_SIZE = 1000;
+
+    /** Image infos of the thumbnails, by blob digest, or {@code null} if not cached. */
+    protected static final Map<String, SimpleImageInfo> thumbnailInfos = createThumbnailInfos();
+
     /** Cache for Properties objects, which are expensive to create. */
-    private Map<String, Properties> propertiesCache = new HashMap<String, Properties>();
+    private Map<List<String>, Properties> propertiesCache = new HashMap<List<String>, Properties>();
+
+    /** Properties already constructed, by id. Values are computed when the properties are read. */
+    private Map<String, PropertyData<?>> propertyDatas = new HashMap<String, PropertyData<?>>();
 
     private CallContext callContext;
 
@@ -154,6 +170,17 @@ public class NuxeoObjectData implements ObjectData {
                 Boolean.valueOf(context.isIncludePolicies()), Boolean.valueOf(context.isIncludeAcls()), null);
     }
 
+    /**
+     * Gets the session of the service, so that its calls are counted with the others, or the session of the document
+     * if the service has none.
+     *
+     * @since 7.3
+     */
+    public CoreSession getCoreSession() {
+        CoreSession session = nuxeoCmisService.getCoreSession();
+        return session == null ? doc.getCoreSession() : session;
+    }
+
     private static final String STAR = "*";
 
     protected static final List<String> STAR_FILTER = Collections.singletonList(STAR);
@@ -190,21 +217,19 @@ public class NuxeoObjectData implements ObjectData {
     }
 
     protected Properties getProperties(List<String> propertyIds) {
-        // for STAR_FILTER the key is equal to STAR (see limitCacheSize)
-        String key = StringUtils.join(propertyIds, ',');
-        Properties properties = propertiesCache.get(key);
+        Properties properties = propertiesCache.get(propertyIds);
         if (properties == null) {
             Map<String, PropertyDefinition<?>> propertyDefinitions = type.getPropertyDefinitions();
             int len = propertyIds == STAR_FILTER ? propertyDefinitions.size() : propertyIds.size();
             List<PropertyData<?>> props = new ArrayList<PropertyData<?>>(len);
             for (PropertyDefinition<?> pd : propertyDefinitions.values()) {
                 if (propertyIds == STAR_FILTER || propertyIds.contains(pd.getId())) {
-                    props.add((PropertyData<?>) NuxeoPropertyData.construct(this, pd, callContext));
+                    props.add(getPropertyData(pd));
                 }
             }
             properties = objectFactory.createPropertiesData(props);
             limitCacheSize();
-            propertiesCache.put(key, properties);
+            propertiesCache.put(propertyIds, properties);
         }
         return properties;
     }
@@ -212,17 +237,32 @@ public class NuxeoObjectData implements ObjectData {
     /** Limits cache size, always keeps STAR filter. */
     protected void limitCacheSize() {
         if (propertiesCache.size() >= CACHE_MAX_SIZE) {
-            Properties sf = propertiesCache.get(STAR);
+            Properties sf = propertiesCache.get(STAR_FILTER);
             propertiesCache.clear();
             if (sf != null) {
-                propertiesCache.put(STAR, sf);
+                propertiesCache.put(STAR_FILTER, sf);
             }
         }
     }
 
+    /**
+     * Gets a property, constructing it only once for this object.
+     */
+    protected PropertyData<?> getPropertyData(PropertyDefinition<?> pd) {
+        PropertyData<?> prop = propertyDatas.get(pd.getId());
+        if (prop == null) {
+            prop = (PropertyData<?>) NuxeoPropertyData.construct(this, pd, callContext);
+            propertyDatas.put(pd.getId(), prop);
+        }
+        return prop;
+    }
+
     public NuxeoPropertyDataBase<?> getProperty(String id) {
-        // make use of cache
-        return (NuxeoPropertyDataBase<?>) getProperties(STAR_FILTER).getProperties().get(id);
+        PropertyDefinition<?> pd = type.getPropertyDefinitions().get(id);
+        if (pd == null) {
+            return null;
+        }
+        return (NuxeoPropertyDataBase<?>) getPropertyData(pd);
     }
 
     @Override
@@ -230,17 +270,26 @@ public class NuxeoObjectData implements ObjectData {
         if (!Boolean.TRUE.equals(includeAllowableActions)) {
             return null;
         }
-        return getAllowableActions(doc, creation);
+        return getAllowableActions(getCoreSession(), doc, creation);
     }
 
     public static AllowableActions getAllowableActions(DocumentModel doc, boolean creation) {
+        return getAllowableActions(doc.getCoreSession(), doc, creation);
+    }
+
+    /**
+     * Computes the allowable actions of a document, checking permissions with the given session.
+     *
+     * @since 7.3
+     */
+    public static AllowableActions getAllowableActions(CoreSession session, DocumentModel doc, boolean creation) {
         BaseTypeId baseType = NuxeoTypeHelper.getBaseTypeId(doc);
         boolean isDocument = baseType == BaseTypeId.CMIS_DOCUMENT;
         boolean isFolder = baseType == BaseTypeId.CMIS_FOLDER;
         boolean isRoot = "/".equals(doc.getPathAsString());
         boolean canWrite;
         try {
-            canWrite = creation || doc.getCoreSession().hasPermission(doc.getRef(), SecurityConstants.WRITE);
+            canWrite = creation || session.hasPermission(doc.getRef(), SecurityConstants.WRITE);
         } catch (ClientException e) {
             canWrite = false;
         }
@@ -443,7 +492,7 @@ public class NuxeoObjectData implements ObjectData {
                 Blob blob = rendition.getBlob();
                 if (blob != null) {
                     ren.setTitle(blob.getFilename());
-                    SimpleImageInfo info = new SimpleImageInfo(blob.getStream());
+                    SimpleImageInfo info = getThumbnailInfo(blob);
                     ren.setBigLength(BigInteger.valueOf(info.getLength()));
                     ren.setBigWidth(BigInteger.valueOf(info.getWidth()));
                     ren.setBigHeight(BigInteger.valueOf(info.getHeight()));
@@ -455,6 +504,33 @@ public class NuxeoObjectData implements ObjectData {
         return list;
     }
 
+    protected static Map<String, SimpleImageInfo> createThumbnailInfos() {
+        int size = NuxeoRepository.getIntProperty(THUMBNAIL_INFO_CACHE_SIZE_PROP, DEFAULT_THUMBNAIL_INFO_CACHE_SIZE);
+        if (size <= 0) {
+            return null;
+        }
+        return Collections.synchronizedMap(new NuxeoRepository.LRUMap<String, SimpleImageInfo>(size));
+    }
+
+    /**
+     * Gets the image info of a thumbnail, from the cache if the same blob was already read. Only the image header is
+     * read when the blob length is known.
+     *
+     * @since 7.3
+     */
+    protected static SimpleImageInfo getThumbnailInfo(Blob blob) throws IOException {
+        String digest = thumbnailInfos == null ? null : blob.getDigest();
+        if (digest == null) {
+            return new SimpleImageInfo(blob.getStream(), blob.getLength());
+        }
+        SimpleImageInfo info = thumbnailInfos.get(digest);
+        if (info == null) {
+            info = new SimpleImageInfo(blob.getStream(), blob.getLength());
+            thumbnailInfos.put(digest, info);
+        }
+        return info;
+    }
+
     @Override
     public List<ObjectData> getRelationships() {
         return getRelationships(getId(), includeRelationships, nuxeoCmisService);
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.GregorianCalendar;
+
+import org.apache.chemistry.opencmis.commons.data.PartialContentStream;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConstraintException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisInvalidArgumentException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Range of a {@link Blob}, exposed as a CMIS {@link PartialContentStream} so that the bindings return a partial
+ * content response.
+ *
+ * @since 7.3
+ */
+public class NuxeoPartialContentStream extends NuxeoContentStream implements PartialContentStream {
+
+    protected final long offset;
+
+    protected final long length;
+
+    /**
+     * Constructs a range of a blob.
+     *
+     * @param blob the blob
+     * @param lastModified the last modification date
+     * @param offset the offset of the range, or {@code null} for 0
+     * @param length the length of the range, or {@code null} for the rest of the blob
+     * @throws CmisConstraintException if the offset is past the end of the blob
+     */
+    public NuxeoPartialContentStream(Blob blob, GregorianCalendar lastModified, BigInteger offset, BigInteger length) {
+        super(blob, lastModified);
+        long blobLength = blob.getLength();
+        long off = offset == null ? 0 : offset.longValue();
+        if (off < 0) {
+            throw new CmisInvalidArgumentException("Invalid offset: " + offset);
+        }
+        if (blobLength >= 0 && off > 0 && off >= blobLength) {
+            // unsatisfiable range, HTTP 416
+            throw new CmisConstraintException("Offset " + offset + " is past the content length " + blobLength);
+        }
+        long len = length == null ? -1 : length.longValue();
+        if (len < -1) {
+            throw new CmisInvalidArgumentException("Invalid length: " + length);
+        }
+        if (blobLength >= 0 && (len == -1 || off + len > blobLength)) {
+            len = blobLength - off;
+        }
+        this.offset = off;
+        this.length = len;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public BigInteger getBigLength() {
+        return length == -1 ? null : BigInteger.valueOf(length);
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    protected InputStream openStream() throws IOException {
+        InputStream stream;
+        File file = getFile();
+        if (file != null && file.isFile()) {
+            // seek directly to the offset
+            FileInputStream fis = new FileInputStream(file);
+            fis.getChannel().position(offset);
+            stream = fis;
+        } else {
+            stream = blob.getStream();
+            IOUtils.skipFully(stream, offset);
+        }
+        if (length == -1) {
+            return stream;
+        }
+        return new BoundedInputStream(stream, length);
+    }
+
+}
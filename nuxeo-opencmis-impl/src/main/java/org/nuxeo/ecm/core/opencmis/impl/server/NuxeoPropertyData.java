@@ -30,6 +30,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.chemistry.opencmis.commons.data.ContentStream;
+import org.apache.chemistry.opencmis.commons.data.PartialContentStream;
 import org.apache.chemistry.opencmis.commons.data.PropertyBoolean;
 import org.apache.chemistry.opencmis.commons.data.PropertyData;
 import org.apache.chemistry.opencmis.commons.data.PropertyDateTime;
@@ -102,146 +103,114 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
     public static <U> PropertyData<U> construct(NuxeoObjectData data, PropertyDefinition<U> pd, CallContext callContext) {
         DocumentModel doc = data.doc;
         String name = pd.getId();
-        if (PropertyIds.OBJECT_ID.equals(name)) {
+        switch (name) {
+        case PropertyIds.OBJECT_ID:
             return (PropertyData<U>) new NuxeoPropertyIdDataFixed((PropertyDefinition<String>) pd, doc.getId());
-        } else if (PropertyIds.OBJECT_TYPE_ID.equals(name)) {
+        case PropertyIds.OBJECT_TYPE_ID:
             return (PropertyData<U>) new NuxeoPropertyIdDataFixed((PropertyDefinition<String>) pd,
                     NuxeoTypeHelper.mappedId(doc.getType()));
-        } else if (PropertyIds.BASE_TYPE_ID.equals(name)) {
+        case PropertyIds.BASE_TYPE_ID:
             return (PropertyData<U>) new NuxeoPropertyIdDataFixed((PropertyDefinition<String>) pd,
                     NuxeoTypeHelper.getBaseTypeId(doc).value());
-        } else if (PropertyIds.DESCRIPTION.equals(name)) {
+        case PropertyIds.DESCRIPTION:
             return (PropertyData<U>) new NuxeoPropertyStringData((PropertyDefinition<String>) pd, doc,
                     NuxeoTypeHelper.NX_DC_DESCRIPTION, true, callContext);
-        } else if (PropertyIds.CREATED_BY.equals(name)) {
+        case PropertyIds.CREATED_BY:
             return (PropertyData<U>) new NuxeoPropertyStringData((PropertyDefinition<String>) pd, doc,
                     NuxeoTypeHelper.NX_DC_CREATOR, true, callContext);
-        } else if (PropertyIds.CREATION_DATE.equals(name)) {
+        case PropertyIds.CREATION_DATE:
             return (PropertyData<U>) new NuxeoPropertyDateTimeData((PropertyDefinition<GregorianCalendar>) pd, doc,
                     NuxeoTypeHelper.NX_DC_CREATED, true, callContext);
-        } else if (PropertyIds.LAST_MODIFIED_BY.equals(name)) {
+        case PropertyIds.LAST_MODIFIED_BY:
             return (PropertyData<U>) new NuxeoPropertyStringData((PropertyDefinition<String>) pd, doc,
                     NuxeoTypeHelper.NX_DC_LAST_CONTRIBUTOR, true, callContext);
-        } else if (PropertyIds.LAST_MODIFICATION_DATE.equals(name)) {
+        case PropertyIds.LAST_MODIFICATION_DATE:
             return (PropertyData<U>) new NuxeoPropertyDateTimeData((PropertyDefinition<GregorianCalendar>) pd, doc,
                     NuxeoTypeHelper.NX_DC_MODIFIED, true, callContext);
-        } else if (PropertyIds.CHANGE_TOKEN.equals(name)) {
+        case PropertyIds.CHANGE_TOKEN:
             return (PropertyData<U>) new NuxeoPropertyStringDataFixed((PropertyDefinition<String>) pd, null);
-        } else if (PropertyIds.NAME.equals(name)) {
+        case PropertyIds.NAME:
             return (PropertyData<U>) new NuxeoPropertyDataName((PropertyDefinition<String>) pd, doc);
-        } else if (PropertyIds.IS_IMMUTABLE.equals(name)) {
+        case PropertyIds.IS_IMMUTABLE:
             // TODO check write
             return (PropertyData<U>) new NuxeoPropertyBooleanDataFixed((PropertyDefinition<Boolean>) pd, Boolean.FALSE);
-        } else if (PropertyIds.IS_LATEST_VERSION.equals(name)) {
+        case PropertyIds.IS_LATEST_VERSION:
             return (PropertyData<U>) new NuxeoPropertyDataIsLatestVersion((PropertyDefinition<Boolean>) pd, doc);
-        } else if (PropertyIds.IS_LATEST_MAJOR_VERSION.equals(name)) {
+        case PropertyIds.IS_LATEST_MAJOR_VERSION:
             return (PropertyData<U>) new NuxeoPropertyDataIsLatestMajorVersion((PropertyDefinition<Boolean>) pd, doc);
-        } else if (PropertyIds.IS_MAJOR_VERSION.equals(name)) {
+        case PropertyIds.IS_MAJOR_VERSION:
             return (PropertyData<U>) new NuxeoPropertyDataIsMajorVersion((PropertyDefinition<Boolean>) pd, doc);
-        } else if (PropertyIds.VERSION_LABEL.equals(name)) {
+        case PropertyIds.VERSION_LABEL:
             return (PropertyData<U>) new NuxeoPropertyDataVersionLabel((PropertyDefinition<String>) pd, doc);
-        } else if (PropertyIds.VERSION_SERIES_ID.equals(name)) {
-            // doesn't change once computed, no need to have a dynamic prop
-            String versionSeriesId;
-            try {
-                versionSeriesId = doc.getVersionSeriesId();
-            } catch (ClientException e) {
-                throw new CmisRuntimeException(e.toString(), e);
-            }
-            return (PropertyData<U>) new NuxeoPropertyIdDataFixed((PropertyDefinition<String>) pd, versionSeriesId);
-        } else if (PropertyIds.IS_VERSION_SERIES_CHECKED_OUT.equals(name)) {
+        case PropertyIds.VERSION_SERIES_ID:
+            return (PropertyData<U>) new NuxeoPropertyDataVersionSeriesId((PropertyDefinition<String>) pd, doc);
+        case PropertyIds.IS_VERSION_SERIES_CHECKED_OUT:
             return (PropertyData<U>) new NuxeoPropertyDataIsVersionSeriesCheckedOut((PropertyDefinition<Boolean>) pd,
                     doc);
-        } else if (PropertyIds.VERSION_SERIES_CHECKED_OUT_BY.equals(name)) {
+        case PropertyIds.VERSION_SERIES_CHECKED_OUT_BY:
             return (PropertyData<U>) new NuxeoPropertyDataVersionSeriesCheckedOutBy((PropertyDefinition<String>) pd,
-                    doc, callContext);
-        } else if (PropertyIds.VERSION_SERIES_CHECKED_OUT_ID.equals(name)) {
+                    doc, data.getCoreSession(), callContext);
+        case PropertyIds.VERSION_SERIES_CHECKED_OUT_ID:
             return (PropertyData<U>) new NuxeoPropertyDataVersionSeriesCheckedOutId((PropertyDefinition<String>) pd,
-                    doc);
-        } else if (NuxeoTypeHelper.NX_ISVERSION.equals(name)) {
+                    doc, data.getCoreSession());
+        case NuxeoTypeHelper.NX_ISVERSION:
             return (PropertyData<U>) new NuxeoPropertyBooleanDataFixed((PropertyDefinition<Boolean>) pd,
                     Boolean.valueOf(doc.isVersion()));
-        } else if (NuxeoTypeHelper.NX_ISCHECKEDIN.equals(name)) {
-            boolean co;
-            try {
-                co = doc.isCheckedOut();
-            } catch (ClientException e) {
-                throw new CmisRuntimeException(e.toString(), e);
-            }
-            return (PropertyData<U>) new NuxeoPropertyBooleanDataFixed((PropertyDefinition<Boolean>) pd,
-                    Boolean.valueOf(!co));
-        } else if (PropertyIds.IS_PRIVATE_WORKING_COPY.equals(name)) {
-            boolean co;
-            try {
-                co = doc.isCheckedOut();
-            } catch (ClientException e) {
-                throw new CmisRuntimeException(e.toString(), e);
-            }
-            return (PropertyData<U>) new NuxeoPropertyBooleanDataFixed((PropertyDefinition<Boolean>) pd,
-                    Boolean.valueOf(co));
-        } else if (PropertyIds.CHECKIN_COMMENT.equals(name)) {
-            return (PropertyData<U>) new NuxeoPropertyDataCheckInComment((PropertyDefinition<String>) pd, doc);
-        } else if (PropertyIds.CONTENT_STREAM_LENGTH.equals(name)) {
+        case NuxeoTypeHelper.NX_ISCHECKEDIN:
+            return (PropertyData<U>) new NuxeoPropertyDataIsCheckedOut((PropertyDefinition<Boolean>) pd, doc, false);
+        case PropertyIds.IS_PRIVATE_WORKING_COPY:
+            return (PropertyData<U>) new NuxeoPropertyDataIsCheckedOut((PropertyDefinition<Boolean>) pd, doc, true);
+        case PropertyIds.CHECKIN_COMMENT:
+            return (PropertyData<U>) new NuxeoPropertyDataCheckInComment((PropertyDefinition<String>) pd, doc,
+                    data.getCoreSession());
+        case PropertyIds.CONTENT_STREAM_LENGTH:
             return (PropertyData<U>) new NuxeoPropertyDataContentStreamLength((PropertyDefinition<BigInteger>) pd, doc);
-        } else if (NuxeoTypeHelper.NX_DIGEST.equals(name)) {
+        case NuxeoTypeHelper.NX_DIGEST:
             return (PropertyData<U>) new NuxeoPropertyDataContentStreamDigest((PropertyDefinition<String>) pd, doc);
-        } else if (PropertyIds.CONTENT_STREAM_HASH.equals(name)) {
-            String digest = new NuxeoPropertyDataContentStreamDigest((PropertyDefinition<String>) pd, doc).getFirstValue();
-            List<String> hashes;
-            if (digest == null) {
-                hashes = new ArrayList<String>();
-            } else {
-                hashes = Arrays.asList(new ContentStreamHashImpl(ContentStreamHashImpl.ALGORITHM_MD5, digest).getPropertyValue());
-            }
-            return (PropertyData<U>) new NuxeoPropertyDataContentStreamHash((PropertyDefinition<String>) pd, hashes);
-        } else if (PropertyIds.CONTENT_STREAM_MIME_TYPE.equals(name)) {
+        case PropertyIds.CONTENT_STREAM_HASH:
+            return (PropertyData<U>) new NuxeoPropertyDataContentStreamHash((PropertyDefinition<String>) pd, doc);
+        case PropertyIds.CONTENT_STREAM_MIME_TYPE:
             return (PropertyData<U>) new NuxeoPropertyDataContentStreamMimeType((PropertyDefinition<String>) pd, doc);
-        } else if (PropertyIds.CONTENT_STREAM_FILE_NAME.equals(name)) {
+        case PropertyIds.CONTENT_STREAM_FILE_NAME:
             return (PropertyData<U>) new NuxeoPropertyDataContentStreamFileName((PropertyDefinition<String>) pd, doc);
-        } else if (PropertyIds.CONTENT_STREAM_ID.equals(name)) {
+        case PropertyIds.CONTENT_STREAM_ID:
             return (PropertyData<U>) new NuxeoPropertyIdDataFixed((PropertyDefinition<String>) pd, null);
-        } else if (PropertyIds.PARENT_ID.equals(name)) {
-            return (PropertyData<U>) new NuxeoPropertyDataParentId((PropertyDefinition<String>) pd, doc);
-        } else if (NuxeoTypeHelper.NX_PARENT_ID.equals(name)) {
-            return (PropertyData<U>) new NuxeoPropertyDataParentId((PropertyDefinition<String>) pd, doc);
-        } else if (NuxeoTypeHelper.NX_PATH_SEGMENT.equals(name)) {
+        case PropertyIds.PARENT_ID:
+        case NuxeoTypeHelper.NX_PARENT_ID:
+            return (PropertyData<U>) new NuxeoPropertyDataParentId((PropertyDefinition<String>) pd, doc,
+                    data.getCoreSession());
+        case NuxeoTypeHelper.NX_PATH_SEGMENT:
             return (PropertyData<U>) new NuxeoPropertyStringDataFixed((PropertyDefinition<String>) pd, doc.getName());
-        } else if (NuxeoTypeHelper.NX_POS.equals(name)) {
+        case NuxeoTypeHelper.NX_POS:
             return (PropertyData<U>) new NuxeoPropertyIntegerDataFixed((PropertyDefinition<BigInteger>) pd,
                     doc.getPos());
-        } else if (PropertyIds.PATH.equals(name)) {
+        case PropertyIds.PATH:
             return (PropertyData<U>) new NuxeoPropertyDataPath((PropertyDefinition<String>) pd, doc);
-        } else if (PropertyIds.ALLOWED_CHILD_OBJECT_TYPE_IDS.equals(name)) {
+        case PropertyIds.ALLOWED_CHILD_OBJECT_TYPE_IDS:
             return (PropertyData<U>) new NuxeoPropertyIdMultiDataFixed((PropertyDefinition<String>) pd,
                     Collections.<String> emptyList());
-        } else if (PropertyIds.SOURCE_ID.equals(name)) {
+        case PropertyIds.SOURCE_ID:
             return (PropertyData<U>) new NuxeoPropertyIdData((PropertyDefinition<String>) pd, doc,
                     NuxeoTypeHelper.NX_REL_SOURCE, false, callContext);
-        } else if (PropertyIds.TARGET_ID.equals(name)) {
+        case PropertyIds.TARGET_ID:
             return (PropertyData<U>) new NuxeoPropertyIdData((PropertyDefinition<String>) pd, doc,
                     NuxeoTypeHelper.NX_REL_TARGET, false, callContext);
-        } else if (PropertyIds.POLICY_TEXT.equals(name)) {
+        case PropertyIds.POLICY_TEXT:
             return (PropertyData<U>) new NuxeoPropertyStringDataFixed((PropertyDefinition<String>) pd, null);
-        } else if (PropertyIds.SECONDARY_OBJECT_TYPE_IDS.equals(name)) {
+        case PropertyIds.SECONDARY_OBJECT_TYPE_IDS:
             // secondary object types require that the types be
             // actually registered through the type service
             // -> return empty for now
             return (PropertyData<U>) new NuxeoPropertyIdMultiDataFixed((PropertyDefinition<String>) pd,
                     Collections.<String> emptyList());
-        } else if (NuxeoTypeHelper.NX_FACETS.equals(name)) {
+        case NuxeoTypeHelper.NX_FACETS:
             List<String> facets = new ArrayList<String>(doc.getFacets());
             facets.remove(FacetNames.IMMUTABLE); // not actually stored or registered
             Collections.sort(facets);
             return (PropertyData<U>) new NuxeoPropertyIdMultiDataFixed((PropertyDefinition<String>) pd, facets);
-        } else if (NuxeoTypeHelper.NX_LIFECYCLE_STATE.equals(name)) {
-            String state;
-            try {
-                state = doc.getCurrentLifeCycleState();
-            } catch (ClientException e) {
-                throw new CmisRuntimeException(e.toString(), e);
-            }
-            return (PropertyData<U>) new NuxeoPropertyStringDataFixed((PropertyDefinition<String>) pd, state);
-        } else {
+        case NuxeoTypeHelper.NX_LIFECYCLE_STATE:
+            return (PropertyData<U>) new NuxeoPropertyDataLifeCycleState((PropertyDefinition<String>) pd, doc);
+        default:
             boolean readOnly = pd.getUpdatability() != Updatability.READWRITE;
             // TODO WHEN_CHECKED_OUT, ON_CREATE
 
@@ -277,6 +246,16 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
     }
 
     public static ContentStream getContentStream(DocumentModel doc) throws CmisRuntimeException {
+        return getContentStream(doc, null, null);
+    }
+
+    /**
+     * Gets the content stream of a document, or a range of it if an offset or length is specified.
+     *
+     * @since 7.3
+     */
+    public static ContentStream getContentStream(DocumentModel doc, BigInteger offset, BigInteger length)
+            throws CmisRuntimeException {
         BlobHolder blobHolder = doc.getAdapter(BlobHolder.class);
         if (blobHolder == null) {
             throw new CmisStreamNotSupportedException();
@@ -292,6 +271,9 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
         } catch (ClientException e) {
             throw new CmisRuntimeException(e.toString(), e);
         }
+        if (offset != null || length != null) {
+            return new NuxeoPartialContentStream(blob, lastModified, offset, length);
+        }
         return new NuxeoContentStream(blob, lastModified);
     }
 
@@ -335,11 +317,39 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
         }
     }
 
+    /**
+     * Size under which content is kept in memory instead of being written to a temporary file.
+     *
+     * @since 7.3
+     */
+    public static final long IN_MEMORY_MAX_LENGTH = 64 * 1024;
+
     /** Returns a Blob whose stream can be used several times. */
     public static Blob getPersistentBlob(ContentStream contentStream, String filename) throws IOException {
         if (filename == null) {
             filename = contentStream.getFileName();
         }
+        if (contentStream instanceof NuxeoContentStream && !(contentStream instanceof PartialContentStream)) {
+            // content from another document (local binding), reuse its file if possible
+            File file = ((NuxeoContentStream) contentStream).blob.getFile();
+            if (file != null) {
+                return Blobs.createBlob(file, contentStream.getMimeType(), null, filename);
+            }
+        }
+        long length = contentStream.getLength();
+        if (length >= 0 && length <= IN_MEMORY_MAX_LENGTH) {
+            // small content, no need for a temporary file
+            InputStream in = contentStream.getStream();
+            try {
+                Blob blob = Blobs.createBlob(IOUtils.toByteArray(in), contentStream.getMimeType());
+                blob.setFilename(filename);
+                return blob;
+            } finally {
+                FileUtils.close(in);
+            }
+        }
+        // the blob is only written to the binary manager when the document is saved, and listeners (mime type,
+        // digest, fulltext) may read it before, so the content stream, which can be read only once, is copied
         InputStream in = contentStream.getStream();
         OutputStream out = null;
         File file;
@@ -724,11 +734,39 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
     /**
      * Property for cmis:contentStreamHash.
      */
-    public static class NuxeoPropertyDataContentStreamHash extends NuxeoPropertyMultiDataFixed<String> implements
+    public static class NuxeoPropertyDataContentStreamHash extends NuxeoPropertyDataBase<String> implements
             PropertyString {
 
-        protected NuxeoPropertyDataContentStreamHash(PropertyDefinition<String> propertyDefinition, List<String> hashes) {
-            super(propertyDefinition, hashes);
+        protected List<String> hashes;
+
+        protected NuxeoPropertyDataContentStreamHash(PropertyDefinition<String> propertyDefinition, DocumentModel doc) {
+            super(propertyDefinition, doc);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <U> U getValue() {
+            return (U) getValues();
+        }
+
+        @Override
+        public String getFirstValue() {
+            List<String> values = getValues();
+            return values.isEmpty() ? null : values.get(0);
+        }
+
+        @Override
+        public List<String> getValues() {
+            if (hashes == null) {
+                Blob blob = getBlob(doc);
+                String digest = blob == null ? null : blob.getDigest();
+                if (digest == null) {
+                    hashes = Collections.emptyList();
+                } else {
+                    hashes = Arrays.asList(new ContentStreamHashImpl(ContentStreamHashImpl.ALGORITHM_MD5, digest).getPropertyValue());
+                }
+            }
+            return hashes;
         }
     }
 
@@ -805,8 +843,12 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
      */
     public static class NuxeoPropertyDataParentId extends NuxeoPropertyDataBase<String> implements PropertyId {
 
-        protected NuxeoPropertyDataParentId(PropertyDefinition<String> propertyDefinition, DocumentModel doc) {
+        protected final CoreSession session;
+
+        protected NuxeoPropertyDataParentId(PropertyDefinition<String> propertyDefinition, DocumentModel doc,
+                CoreSession session) {
             super(propertyDefinition, doc);
+            this.session = session;
         }
 
         @Override
@@ -821,7 +863,7 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
                     return ((IdRef) parentRef).value;
                 } else {
                     try {
-                        return doc.getCoreSession().getDocument(parentRef).getId();
+                        return session.getDocument(parentRef).getId();
                     } catch (ClientException e) {
                         throw new CmisRuntimeException(e.toString(), e);
                     }
@@ -923,6 +965,74 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
         }
     }
 
+    /**
+     * Property for cmis:versionSeriesId.
+     */
+    public static class NuxeoPropertyDataVersionSeriesId extends NuxeoPropertyDataLazy<String> implements PropertyId {
+
+        protected NuxeoPropertyDataVersionSeriesId(PropertyDefinition<String> propertyDefinition, DocumentModel doc) {
+            super(propertyDefinition, doc);
+        }
+
+        @Override
+        protected String computeValue() {
+            // doesn't change once computed
+            try {
+                return doc.getVersionSeriesId();
+            } catch (ClientException e) {
+                throw new CmisRuntimeException(e.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Property for cmis:isPrivateWorkingCopy and nuxeo:isCheckedIn.
+     */
+    public static class NuxeoPropertyDataIsCheckedOut extends NuxeoPropertyDataLazy<Boolean> implements
+            PropertyBoolean {
+
+        protected final boolean checkedOut;
+
+        /**
+         * @param checkedOut {@code true} for a value true when the document is checked out, {@code false} for a value
+         *            true when it is checked in
+         */
+        protected NuxeoPropertyDataIsCheckedOut(PropertyDefinition<Boolean> propertyDefinition, DocumentModel doc,
+                boolean checkedOut) {
+            super(propertyDefinition, doc);
+            this.checkedOut = checkedOut;
+        }
+
+        @Override
+        protected Boolean computeValue() {
+            try {
+                return Boolean.valueOf(doc.isCheckedOut() == checkedOut);
+            } catch (ClientException e) {
+                throw new CmisRuntimeException(e.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Property for nuxeo:lifecycleState.
+     */
+    public static class NuxeoPropertyDataLifeCycleState extends NuxeoPropertyDataLazy<String> implements
+            PropertyString {
+
+        protected NuxeoPropertyDataLifeCycleState(PropertyDefinition<String> propertyDefinition, DocumentModel doc) {
+            super(propertyDefinition, doc);
+        }
+
+        @Override
+        protected String computeValue() {
+            try {
+                return doc.getCurrentLifeCycleState();
+            } catch (ClientException e) {
+                throw new CmisRuntimeException(e.toString(), e);
+            }
+        }
+    }
+
     /**
      * Property for cmis:isVersionSeriesCheckedOut.
      */
@@ -950,9 +1060,12 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
     public static class NuxeoPropertyDataVersionSeriesCheckedOutId extends NuxeoPropertyDataBase<String> implements
             PropertyId {
 
+        protected final CoreSession session;
+
         protected NuxeoPropertyDataVersionSeriesCheckedOutId(PropertyDefinition<String> propertyDefinition,
-                DocumentModel doc) {
+                DocumentModel doc, CoreSession session) {
             super(propertyDefinition, doc);
+            this.session = session;
         }
 
         @Override
@@ -961,7 +1074,7 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
                 if (!doc.isVersionSeriesCheckedOut()) {
                     return null;
                 }
-                DocumentModel pwc = doc.getCoreSession().getWorkingCopy(doc.getRef());
+                DocumentModel pwc = session.getWorkingCopy(doc.getRef());
                 return pwc == null ? null : pwc.getId();
             } catch (ClientException e) {
                 throw new CmisRuntimeException(e.toString(), e);
@@ -975,11 +1088,14 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
     public static class NuxeoPropertyDataVersionSeriesCheckedOutBy extends NuxeoPropertyDataBase<String> implements
             PropertyString {
 
+        protected final CoreSession session;
+
         protected final CallContext callContext;
 
         protected NuxeoPropertyDataVersionSeriesCheckedOutBy(PropertyDefinition<String> propertyDefinition,
-                DocumentModel doc, CallContext callContext) {
+                DocumentModel doc, CoreSession session, CallContext callContext) {
             super(propertyDefinition, doc);
+            this.session = session;
             this.callContext = callContext;
         }
 
@@ -989,7 +1105,7 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
                 if (!doc.isVersionSeriesCheckedOut()) {
                     return null;
                 }
-                DocumentModel pwc = doc.getCoreSession().getWorkingCopy(doc.getRef());
+                DocumentModel pwc = session.getWorkingCopy(doc.getRef());
                 // TODO not implemented
                 return pwc == null ? null : callContext.getUsername();
             } catch (ClientException e) {
@@ -1025,8 +1141,12 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
      */
     public static class NuxeoPropertyDataCheckInComment extends NuxeoPropertyDataBase<String> implements PropertyString {
 
-        protected NuxeoPropertyDataCheckInComment(PropertyDefinition<String> propertyDefinition, DocumentModel doc) {
+        protected final CoreSession session;
+
+        protected NuxeoPropertyDataCheckInComment(PropertyDefinition<String> propertyDefinition, DocumentModel doc,
+                CoreSession session) {
             super(propertyDefinition, doc);
+            this.session = session;
         }
 
         @Override
@@ -1038,7 +1158,6 @@ public abstract class NuxeoPropertyData<T> extends NuxeoPropertyDataBase<T> {
                 if (doc.isCheckedOut()) {
                     return null;
                 }
-                CoreSession session = doc.getCoreSession();
                 DocumentRef v = session.getBaseVersion(doc.getRef());
                 DocumentModel ver = session.getDocument(v);
                 return ver.getCheckinComment();
@@ -120,6 +120,33 @@ public abstract class NuxeoPropertyDataBase<T> implements PropertyData<T> {
         }
     }
 
+    /**
+     * A property whose value is computed when first read, and then kept.
+     *
+     * @since 7.3
+     */
+    public static abstract class NuxeoPropertyDataLazy<T> extends NuxeoPropertyDataBase<T> {
+
+        protected boolean computed;
+
+        protected T value;
+
+        protected NuxeoPropertyDataLazy(PropertyDefinition<T> propertyDefinition, DocumentModel doc) {
+            super(propertyDefinition, doc);
+        }
+
+        protected abstract T computeValue();
+
+        @Override
+        public T getFirstValue() {
+            if (!computed) {
+                value = computeValue();
+                computed = true;
+            }
+            return value;
+        }
+    }
+
     /**
      * A fixed multi-valued property (whose value cannot be changed).
      */
@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.chemistry.opencmis.commons.exceptions.CmisRuntimeException;
 import org.nuxeo.ecm.core.api.ClientException;
@@ -34,6 +35,9 @@ public class NuxeoRepositories extends DefaultComponent {
 
     protected Map<String, NuxeoRepository> repositories;
 
+    /** Called when the repositories are discarded, to drop what still uses them. */
+    protected final List<Runnable> deactivationListeners = new CopyOnWriteArrayList<Runnable>();
+
     @Override
     public void activate(ComponentContext context) {
         repositories = new ConcurrentHashMap<String, NuxeoRepository>();
@@ -42,6 +46,26 @@ public class NuxeoRepositories extends DefaultComponent {
     @Override
     public void deactivate(ComponentContext context) {
         repositories = null;
+        for (Runnable listener : deactivationListeners) {
+            listener.run();
+        }
+        deactivationListeners.clear();
+    }
+
+    /**
+     * Adds a listener called when the repositories are discarded, for instance on hot reload.
+     *
+     * @since 7.3
+     */
+    public void addDeactivationListener(Runnable listener) {
+        deactivationListeners.add(listener);
+    }
+
+    /**
+     * @since 7.3
+     */
+    public void removeDeactivationListener(Runnable listener) {
+        deactivationListeners.remove(listener);
     }
 
     public NuxeoRepository getRepository(String repositoryId) {
@@ -54,6 +78,34 @@ public class NuxeoRepositories extends DefaultComponent {
         return new ArrayList<NuxeoRepository>(repositories.values());
     }
 
+    /**
+     * Invalidates the latest change log token of a repository, if it has already been used.
+     *
+     * @since 7.3
+     */
+    public void invalidateLatestChangeLogToken(String repositoryId) {
+        NuxeoRepository repository = repositories == null ? null : repositories.get(repositoryId);
+        if (repository != null) {
+            repository.invalidateLatestChangeLogToken();
+        }
+    }
+
+    /**
+     * Drops the type systems of the repositories already used, they will be recomputed from the schema manager on next
+     * use.
+     *
+     * @since 7.3
+     */
+    public void invalidateTypes() {
+        Map<String, NuxeoRepository> repos = repositories;
+        if (repos == null) {
+            return;
+        }
+        for (NuxeoRepository repository : repos.values()) {
+            repository.invalidateTypes();
+        }
+    }
+
     protected void initRepositories() {
         if (!repositories.isEmpty()) {
             return;
@@ -57,11 +57,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -92,15 +96,20 @@ import org.apache.chemistry.opencmis.commons.impl.dataobjects.PermissionMappingD
 import org.apache.chemistry.opencmis.commons.impl.dataobjects.RepositoryCapabilitiesImpl;
 import org.apache.chemistry.opencmis.commons.impl.dataobjects.RepositoryInfoImpl;
 import org.apache.chemistry.opencmis.commons.server.CallContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.api.security.PermissionProvider;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.ecm.core.opencmis.impl.server.CMISQLtoNXQL.QueryPlan;
 import org.nuxeo.ecm.core.opencmis.impl.util.TypeManagerImpl;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.ecm.core.schema.DocumentType;
 import org.nuxeo.ecm.core.schema.SchemaManager;
 import org.nuxeo.ecm.core.schema.types.CompositeType;
 import org.nuxeo.ecm.core.schema.types.Schema;
 import org.nuxeo.ecm.core.security.DefaultPermissionProvider;
 import org.nuxeo.ecm.core.security.PermissionVisibilityDescriptor;
+import org.nuxeo.ecm.core.security.SecurityService;
 import org.nuxeo.runtime.api.Framework;
 
 /**
@@ -108,6 +117,8 @@ import org.nuxeo.runtime.api.Framework;
  */
 public class NuxeoRepository {
 
+    private static final Log log = LogFactory.getLog(NuxeoRepository.class);
+
     public static final String NUXEO_VERSION_PROP = "org.nuxeo.distribution.version";
 
     public static final String NUXEO_URL_PROP = "nuxeo.url";
@@ -116,6 +127,40 @@ public class NuxeoRepository {
 
     public static final String ELASTICSEARCH_PROP = "org.nuxeo.cmis.elasticsearch";
 
+    /**
+     * When true, queries don't compute the total number of results, which may be expensive.
+     *
+     * @since 7.3
+     */
+    public static final String QUERY_NO_COUNT_PROP = "org.nuxeo.cmis.query.nocount";
+
+    /**
+     * Maximum number of translated CMISQL queries kept in the query plan cache, 0 to disable it.
+     *
+     * @since 7.3
+     */
+    public static final String QUERY_PLAN_CACHE_SIZE_PROP = "org.nuxeo.cmis.query.plancache.size";
+
+    public static final int DEFAULT_QUERY_PLAN_CACHE_SIZE = 1000;
+
+    /**
+     * Duration in milliseconds above which a CMIS call is logged with its CoreSession statistics, 0 to disable
+     * the statistics.
+     *
+     * @since 7.3
+     */
+    public static final String SLOW_CALL_THRESHOLD_PROP = "org.nuxeo.cmis.slowcall.threshold";
+
+    /**
+     * Duration in seconds during which the latest change log token is kept in memory, 0 to always read it from the
+     * audit. Local changes invalidate it immediately, this is for changes made by other cluster nodes.
+     *
+     * @since 7.3
+     */
+    public static final String CHANGE_LOG_TOKEN_TTL_PROP = "org.nuxeo.cmis.changelog.token.ttl";
+
+    public static final int DEFAULT_CHANGE_LOG_TOKEN_TTL = 5;
+
     private static final String NUXEO_CONTEXT_PATH_PROP = "org.nuxeo.ecm.contextPath";
 
     private static final String NUXEO_CONTEXT_PATH_DEFAULT = "/nuxeo";
@@ -134,8 +179,39 @@ public class NuxeoRepository {
 
     protected boolean useElasticsearch;
 
+    protected boolean countQueryResults = true;
+
+    protected int slowCallThreshold;
+
+    protected long changeLogTokenTTL;
+
+    /** Latest change log token, or {@code null} if it must be read from the audit. */
+    protected volatile String latestChangeLogToken;
+
+    /** Time at which the latest change log token stops being used, in milliseconds. */
+    protected volatile long latestChangeLogTokenExpiry;
+
+    /** Incremented on each invalidation, so that a token read from the audit before it is not kept. */
+    protected volatile long changeLogTokenGeneration;
+
     protected TypeManagerImpl typeManager;
 
+    /** Request-independent part of the repository info, built on first use. */
+    protected volatile RepositoryInfo staticRepositoryInfo;
+
+    protected Set<String> readPermissions;
+
+    protected Set<String> writePermissions;
+
+    /** Document types whose changes are in the change log, computed once. */
+    protected volatile List<String> changeLogDocTypes;
+
+    /** NXQL primary type clauses for CMIS types. */
+    protected final Map<String, String> primaryTypeClauses = new ConcurrentHashMap<String, String>();
+
+    /** Translated queries, or {@code null} if not cached. */
+    protected final Map<String, QueryPlan> queryPlans;
+
     public NuxeoRepository(String repositoryId, String rootFolderId) {
         this.repositoryId = repositoryId;
         this.rootFolderId = rootFolderId;
@@ -145,10 +221,50 @@ public class NuxeoRepository {
         if (Framework.isBooleanPropertyTrue(ELASTICSEARCH_PROP)) {
             setUseElasticsearch(true);
         }
+        if (Framework.isBooleanPropertyTrue(QUERY_NO_COUNT_PROP)) {
+            setCountQueryResults(false);
+        }
+        setSlowCallThreshold(getIntProperty(SLOW_CALL_THRESHOLD_PROP, 0));
+        changeLogTokenTTL = getIntProperty(CHANGE_LOG_TOKEN_TTL_PROP, DEFAULT_CHANGE_LOG_TOKEN_TTL) * 1000L;
+        int size = getIntProperty(QUERY_PLAN_CACHE_SIZE_PROP, DEFAULT_QUERY_PLAN_CACHE_SIZE);
+        queryPlans = size <= 0 ? null : Collections.synchronizedMap(new LRUMap<String, QueryPlan>(size));
+    }
+
+    protected static int getIntProperty(String prop, int def) {
+        String value = Framework.getProperty(prop);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.error("Invalid value for " + prop + ": " + value);
+            }
+        }
+        return def;
+    }
+
+    /**
+     * Map keeping only the most recently used entries.
+     */
+    protected static class LRUMap<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final int maxSize;
+
+        public LRUMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
     }
 
     public void setSupportsJoins(boolean supportsJoins) {
         this.supportsJoins = supportsJoins;
+        staticRepositoryInfo = null;
     }
 
     public boolean supportsJoins() {
@@ -163,6 +279,30 @@ public class NuxeoRepository {
         return useElasticsearch;
     }
 
+    public void setCountQueryResults(boolean countQueryResults) {
+        this.countQueryResults = countQueryResults;
+    }
+
+    public boolean countQueryResults() {
+        return countQueryResults;
+    }
+
+    /**
+     * @since 7.3
+     */
+    public void setSlowCallThreshold(int slowCallThreshold) {
+        this.slowCallThreshold = slowCallThreshold;
+    }
+
+    /**
+     * Gets the duration in milliseconds above which CMIS calls are logged, or 0 if they are not.
+     *
+     * @since 7.3
+     */
+    public int getSlowCallThreshold() {
+        return slowCallThreshold;
+    }
+
     public String getId() {
         return repositoryId;
     }
@@ -175,6 +315,178 @@ public class NuxeoRepository {
         return typeManager;
     }
 
+    /**
+     * Gets the latest change log token kept in memory, or {@code null} if it must be read from the audit.
+     *
+     * @since 7.3
+     */
+    public String getLatestChangeLogToken() {
+        String token = latestChangeLogToken;
+        if (token != null && System.currentTimeMillis() >= latestChangeLogTokenExpiry) {
+            return null;
+        }
+        return token;
+    }
+
+    /**
+     * Gets the number of invalidations of the latest change log token, to be read before reading the token from the
+     * audit.
+     *
+     * @see #setLatestChangeLogToken
+     * @since 7.3
+     */
+    public long getChangeLogTokenGeneration() {
+        return changeLogTokenGeneration;
+    }
+
+    /**
+     * Keeps in memory the latest change log token read from the audit, unless it was invalidated since the read
+     * started.
+     *
+     * @param token the token read from the audit
+     * @param generation the value of {@link #getChangeLogTokenGeneration} before the audit was read
+     * @since 7.3
+     */
+    public synchronized void setLatestChangeLogToken(String token, long generation) {
+        if (changeLogTokenTTL <= 0 || generation != changeLogTokenGeneration) {
+            return;
+        }
+        latestChangeLogTokenExpiry = System.currentTimeMillis() + changeLogTokenTTL;
+        latestChangeLogToken = token;
+    }
+
+    /**
+     * Forgets the latest change log token, called when documents change.
+     *
+     * @since 7.3
+     */
+    public synchronized void invalidateLatestChangeLogToken() {
+        changeLogTokenGeneration++;
+        latestChangeLogToken = null;
+    }
+
+    /**
+     * Gets the document types exposed through CMIS, whose changes are returned in the change log.
+     *
+     * @since 7.3
+     */
+    public List<String> getChangeLogDocTypes() {
+        List<String> docTypes = changeLogDocTypes;
+        if (docTypes == null) {
+            SchemaManager schemaManager = Framework.getService(SchemaManager.class);
+            docTypes = new ArrayList<String>();
+            for (String typeId : getTypeManager().getTypeIds()) {
+                // base and secondary types are not document types
+                if (schemaManager.getDocumentType(typeId) != null) {
+                    docTypes.add(typeId);
+                }
+            }
+            changeLogDocTypes = docTypes = Collections.unmodifiableList(docTypes);
+        }
+        return docTypes;
+    }
+
+    /**
+     * Gets the permissions that give read access, as checked by the security service.
+     *
+     * @since 7.3
+     */
+    // no need to have it synchronized
+    public Set<String> getReadPermissions() {
+        if (readPermissions == null) {
+            readPermissions = getPermissionsToCheck(SecurityConstants.READ);
+        }
+        return readPermissions;
+    }
+
+    /**
+     * Gets the permissions that give write access, as checked by the security service.
+     *
+     * @since 7.3
+     */
+    // no need to have it synchronized
+    public Set<String> getWritePermissions() {
+        if (writePermissions == null) {
+            writePermissions = getPermissionsToCheck(SecurityConstants.READ_WRITE);
+        }
+        return writePermissions;
+    }
+
+    protected static Set<String> getPermissionsToCheck(String permission) {
+        SecurityService securityService = Framework.getService(SecurityService.class);
+        return Collections.unmodifiableSet(new HashSet<>(
+                Arrays.asList(securityService.getPermissionsToCheck(permission))));
+    }
+
+    /**
+     * Drops the type system, which will be recomputed from the schema manager on next use (and with it the cached
+     * type results).
+     *
+     * @since 7.3
+     */
+    public void invalidateTypes() {
+        typeManager = null;
+        changeLogDocTypes = null;
+        primaryTypeClauses.clear();
+        if (queryPlans != null) {
+            queryPlans.clear();
+        }
+    }
+
+    /**
+     * Gets the cache of translated CMISQL queries, or {@code null} if there is no such cache.
+     *
+     * @since 7.3
+     */
+    public Map<String, QueryPlan> getQueryPlans() {
+        return queryPlans;
+    }
+
+    /**
+     * Gets the NXQL clause restricting the documents to a CMIS type and its subtypes. The clause is computed once per
+     * type.
+     * <p>
+     * The matching types are always listed, as documents of types unknown to CMIS must not match.
+     *
+     * @param typeId the CMIS type id
+     * @since 7.3
+     */
+    public String getPrimaryTypeClause(String typeId) {
+        String clause = primaryTypeClauses.get(typeId);
+        if (clause == null) {
+            clause = computePrimaryTypeClause(typeId);
+            primaryTypeClauses.put(typeId, clause);
+        }
+        return clause;
+    }
+
+    protected String computePrimaryTypeClause(String typeId) {
+        TypeManagerImpl typeManager = getTypeManager();
+        Set<String> types = new LinkedHashSet<String>(typeManager.getTypeAndDescendantIds(typeId));
+        if (typeManager.getTypeById(typeId).getTypeDefinition().getParentTypeId() == null) {
+            // don't add abstract root types
+            types.remove(typeId);
+        }
+        if (types.isEmpty()) {
+            // shouldn't happen
+            return String.format("%s = %s", NXQL.ECM_PRIMARYTYPE, NXQL.escapeString("__NOSUCHTYPE__"));
+        }
+        return getInClause(NXQL.ECM_PRIMARYTYPE + " IN ", types);
+    }
+
+    protected static String getInClause(String prefix, Collection<String> values) {
+        StringBuilder buf = new StringBuilder(prefix);
+        buf.append('(');
+        for (Iterator<String> it = values.iterator(); it.hasNext();) {
+            buf.append(NXQL.escapeString(it.next()));
+            if (it.hasNext()) {
+                buf.append(", ");
+            }
+        }
+        buf.append(')');
+        return buf.toString();
+    }
+
     protected static TypeManagerImpl initializeTypes() {
         SchemaManager schemaManager;
         try {
@@ -257,6 +569,29 @@ public class NuxeoRepository {
     }
 
     public RepositoryInfo getRepositoryInfo(String latestChangeLogToken, CallContext callContext) {
+        RepositoryInfo info;
+        if (CallContext.BINDING_LOCAL.equals(callContext.getBinding())) {
+            // local callers get the structures themselves and may modify them, don't share ours
+            info = createStaticRepositoryInfo();
+        } else {
+            info = staticRepositoryInfo;
+            if (info == null) {
+                staticRepositoryInfo = info = createStaticRepositoryInfo();
+            }
+        }
+        // shallow copy, the static structures are shared with other remote requests
+        RepositoryInfoImpl repositoryInfo = new RepositoryInfoImpl(info);
+        repositoryInfo.setThinClientUri(getBaseURL(callContext));
+        repositoryInfo.setLatestChangeLogToken(latestChangeLogToken);
+        return repositoryInfo;
+    }
+
+    /**
+     * Builds the parts of the repository info that don't depend on the request.
+     *
+     * @since 7.3
+     */
+    protected RepositoryInfo createStaticRepositoryInfo() {
         RepositoryInfoImpl repositoryInfo = new RepositoryInfoImpl();
         repositoryInfo.setId(repositoryId);
         repositoryInfo.setName("Nuxeo Repository " + repositoryId);
@@ -264,10 +599,8 @@ public class NuxeoRepository {
         repositoryInfo.setCmisVersionSupported(CmisVersion.CMIS_1_1.value());
         repositoryInfo.setPrincipalAnonymous("Guest"); // TODO
         repositoryInfo.setPrincipalAnyone(SecurityConstants.EVERYONE);
-        repositoryInfo.setThinClientUri(getBaseURL(callContext));
         repositoryInfo.setChangesIncomplete(Boolean.FALSE);
         repositoryInfo.setChangesOnType(Arrays.asList(BaseTypeId.CMIS_DOCUMENT, BaseTypeId.CMIS_FOLDER));
-        repositoryInfo.setLatestChangeLogToken(latestChangeLogToken);
         repositoryInfo.setVendorName("Nuxeo");
         repositoryInfo.setProductName("Nuxeo OpenCMIS Connector");
         String version = Framework.getProperty(NUXEO_VERSION_PROP, "5.5 dev");
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl.server;
+
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.services.event.Event;
+import org.nuxeo.runtime.services.event.EventListener;
+
+/**
+ * Drops the CMIS type systems when the runtime is reloaded or flushed, as document types and schemas may have changed.
+ *
+ * @since 7.3
+ */
+public class NuxeoTypesReloadListener implements EventListener {
+
+    public static final String RELOAD_TOPIC = "org.nuxeo.runtime.reload";
+
+    public static final String FLUSH_EVENT_ID = "flush";
+
+    public static final String RELOAD_EVENT_ID = "reload";
+
+    @Override
+    public boolean aboutToHandleEvent(Event event) {
+        return true;
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+        if (!RELOAD_TOPIC.equals(event.getTopic())) {
+            return;
+        }
+        String id = event.getId();
+        if (!FLUSH_EVENT_ID.equals(id) && !RELOAD_EVENT_ID.equals(id)) {
+            return;
+        }
+        NuxeoRepositories repositories = Framework.getService(NuxeoRepositories.class);
+        if (repositories != null) {
+            repositories.invalidateTypes();
+        }
+    }
+
+}
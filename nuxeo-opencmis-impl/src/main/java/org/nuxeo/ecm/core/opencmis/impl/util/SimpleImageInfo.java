@@ -44,15 +44,52 @@ public class SimpleImageInfo {
 
     protected InputStream in;
 
+    /**
+     * The known length of the stream, or -1 if unknown.
+     *
+     * @since 7.3
+     */
+    protected long limit;
+
+    /**
+     * Buffer size used when only the header is read.
+     *
+     * @since 7.3
+     */
+    protected static final int HEADER_BUFFER_SIZE = 512;
+
+    /**
+     * Reads the image info from the stream, reading the whole stream to compute its length.
+     */
     public SimpleImageInfo(InputStream stream) throws IOException {
+        this(stream, -1);
+    }
+
+    /**
+     * Reads the image info from the stream. If the length of the stream is known, only the image header is read,
+     * otherwise the whole stream is read to compute its length.
+     *
+     * @param length the length of the stream, or -1 if unknown
+     * @since 7.3
+     */
+    public SimpleImageInfo(InputStream stream, long length) throws IOException {
+        limit = length;
         if (stream instanceof BufferedInputStream) {
             in = stream;
+        } else if (length >= 0) {
+            // small buffer, don't read much past the header
+            in = new BufferedInputStream(stream, HEADER_BUFFER_SIZE);
         } else {
             in = new BufferedInputStream(stream);
         }
         processStream();
-        finishStream();
+        if (length >= 0) {
+            this.length = length;
+        } else {
+            finishStream();
+        }
         stream.close();
+        in = null; // don't keep the buffer, infos may be cached
     }
 
     public int getWidth() {
@@ -88,14 +125,20 @@ public class SimpleImageInfo {
         } else if (c1 == 0xFF && c2 == 0xD8) { // JPG
             while (c3 == 255) {
                 int marker = read();
+                while (marker == 255) { // fill bytes
+                    marker = read();
+                }
                 int len = readInt(2, true);
-                if (marker == 192 || marker == 193 || marker == 194) {
+                if (isJpegStartOfFrame(marker)) {
                     skip(1);
                     height = readInt(2, true);
                     width = readInt(2, true);
                     mimeType = "image/jpeg";
                     break;
                 }
+                if (marker == -1 || len < 2 || (limit >= 0 && length + len - 2 >= limit)) {
+                    break; // truncated or corrupted
+                }
                 skip(len - 2);
                 c3 = read();
             }
@@ -113,7 +156,9 @@ public class SimpleImageInfo {
             mimeType = "image/bmp";
         } else {
             int c4 = read();
-            if ((c1 == 'M' && c2 == 'M' && c3 == 0 && c4 == 42) || (c1 == 'I' && c2 == 'I' && c3 == 42 && c4 == 0)) { // TIFF
+            if (c1 == 'R' && c2 == 'I' && c3 == 'F' && c4 == 'F') { // RIFF
+                processWebP();
+            } else if ((c1 == 'M' && c2 == 'M' && c3 == 0 && c4 == 42) || (c1 == 'I' && c2 == 'I' && c3 == 42 && c4 == 0)) { // TIFF
                 boolean bigEndian = c1 == 'M';
                 int ifd = 0;
                 int entries;
@@ -146,6 +191,55 @@ public class SimpleImageInfo {
         }
     }
 
+    /**
+     * SOF0 to SOF15, except DHT, JPG and DAC which share the range.
+     */
+    protected static boolean isJpegStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * Reads the dimensions from the first chunk of a WebP image, the RIFF tag has already been read.
+     *
+     * @since 7.3
+     */
+    protected void processWebP() throws IOException {
+        skip(4); // RIFF size
+        if (read() != 'W' || read() != 'E' || read() != 'B' || read() != 'P') {
+            return;
+        }
+        int c1 = read();
+        int c2 = read();
+        int c3 = read();
+        int c4 = read();
+        if (c1 != 'V' || c2 != 'P' || c3 != '8') {
+            return;
+        }
+        skip(4); // chunk size
+        if (c4 == ' ') { // lossy
+            skip(3); // frame tag
+            if (read() != 0x9D || read() != 0x01 || read() != 0x2A) {
+                return;
+            }
+            width = readInt(2, false) & 0x3FFF;
+            height = readInt(2, false) & 0x3FFF;
+        } else if (c4 == 'L') { // lossless
+            if (read() != 0x2F) {
+                return;
+            }
+            int bits = readInt(4, false);
+            width = (bits & 0x3FFF) + 1;
+            height = ((bits >> 14) & 0x3FFF) + 1;
+        } else if (c4 == 'X') { // extended
+            skip(4); // flags and reserved
+            width = readInt(3, false) + 1;
+            height = readInt(3, false) + 1;
+        } else {
+            return;
+        }
+        mimeType = "image/webp";
+    }
+
     protected int read() throws IOException {
         int c = in.read();
         if (c != -1) {
@@ -15,10 +15,14 @@ package org.nuxeo.ecm.core.opencmis.impl.util;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.chemistry.opencmis.commons.definitions.MutableTypeDefinition;
 import org.apache.chemistry.opencmis.commons.definitions.PropertyDefinition;
@@ -40,7 +44,10 @@ import org.apache.chemistry.opencmis.server.support.TypeManager;
  * <p>
  * Types can be added, the inheritance can be managed and type can be retrieved for a given type id.
  * <p>
- * Structures are not copied when returned.
+ * Structures are not copied when returned. The results of {@link #getTypeChildren} and {@link #getTypeDescendants}
+ * are cached and shared between callers, and must not be modified.
+ * <p>
+ * Lookups by type query name and property query name are indexed when the types are added.
  */
 public class TypeManagerImpl implements TypeManager {
 
@@ -50,6 +57,25 @@ public class TypeManagerImpl implements TypeManager {
 
     protected Map<String, String> propQueryNameToId = new HashMap<String, String>();
 
+    /** Types by query name. */
+    protected Map<String, TypeDefinition> typesByQueryName = new HashMap<String, TypeDefinition>();
+
+    /** Property query name to property id, for each type id. */
+    protected Map<String, Map<String, String>> typePropQueryNameToId = new HashMap<String, Map<String, String>>();
+
+    /** Types without a parent. */
+    protected List<TypeDefinitionContainer> rootTypes = new ArrayList<TypeDefinitionContainer>(4);
+
+    /** Ids of a type and all its descendants, computed lazily. */
+    protected Map<String, Set<String>> typeAndDescendantIds = new ConcurrentHashMap<String, Set<String>>();
+
+    /** Copies of the types without their property definitions, computed lazily. */
+    protected Map<String, TypeDefinition> typesWithoutProperties = new ConcurrentHashMap<String, TypeDefinition>();
+
+    /** Type descendants, keyed by type id, depth and inclusion of property definitions. */
+    protected Map<String, List<TypeDefinitionContainer>> typeDescendantsCache =
+            new ConcurrentHashMap<String, List<TypeDefinitionContainer>>();
+
     @Override
     public TypeDefinitionContainer getTypeById(String typeId) {
         return typesMap.get(typeId);
@@ -66,15 +92,47 @@ public class TypeManagerImpl implements TypeManager {
         return typesMap.containsKey(typeId);
     }
 
-    @Override
-    public TypeDefinition getTypeByQueryName(String typeQueryName) {
-        for (Entry<String, TypeDefinitionContainer> entry : typesMap.entrySet()) {
-            TypeDefinition type = entry.getValue().getTypeDefinition();
-            if (type.getQueryName().equals(typeQueryName)) {
-                return type;
+    /**
+     * Gets the ids of all the known types.
+     *
+     * @return an unmodifiable set of type ids
+     * @since 7.3
+     */
+    public Set<String> getTypeIds() {
+        return Collections.unmodifiableSet(typesMap.keySet());
+    }
+
+    /**
+     * Gets the ids of a type and of all its descendants. The result is computed once and then shared.
+     *
+     * @param typeId the type id
+     * @return an unmodifiable set of type ids, starting with the type itself
+     * @since 7.3
+     */
+    public Set<String> getTypeAndDescendantIds(String typeId) {
+        Set<String> ids = typeAndDescendantIds.get(typeId);
+        if (ids == null) {
+            TypeDefinitionContainer typec = typesMap.get(typeId);
+            if (typec == null) {
+                throw new CmisInvalidArgumentException("No such type: " + typeId);
+            }
+            ids = new LinkedHashSet<String>();
+            LinkedList<TypeDefinitionContainer> todo = new LinkedList<TypeDefinitionContainer>();
+            todo.add(typec);
+            TypeDefinitionContainer tc;
+            while ((tc = todo.poll()) != null) {
+                ids.add(tc.getTypeDefinition().getId());
+                todo.addAll(tc.getChildren());
             }
+            ids = Collections.unmodifiableSet(ids);
+            typeAndDescendantIds.put(typeId, ids);
         }
-        return null;
+        return ids;
+    }
+
+    @Override
+    public TypeDefinition getTypeByQueryName(String typeQueryName) {
+        return typesByQueryName.get(typeQueryName);
     }
 
     public TypeDefinitionList getTypeChildren(String typeId, Boolean includePropertyDefinitions, BigInteger maxItems,
@@ -91,14 +149,7 @@ public class TypeManagerImpl implements TypeManager {
         }
         List<TypeDefinitionContainer> types;
         if (typec == null) {
-            // return root types
-            // TODO maintain pre-computed root types
-            types = new ArrayList<TypeDefinitionContainer>(4);
-            for (TypeDefinitionContainer tc : typesMap.values()) {
-                if (tc.getTypeDefinition().getParentTypeId() == null) {
-                    types.add(tc);
-                }
-            }
+            types = rootTypes;
         } else {
             types = typec.getChildren();
         }
@@ -106,9 +157,7 @@ public class TypeManagerImpl implements TypeManager {
         for (TypeDefinitionContainer tdc : types) {
             TypeDefinition type = tdc.getTypeDefinition();
             if (!Boolean.TRUE.equals(includePropertyDefinitions)) {
-                type = WSConverter.convert(WSConverter.convert(type)); // clone
-                // TODO avoid recomputing type-without-properties
-                type.getPropertyDefinitions().clear();
+                type = getTypeWithoutProperties(type);
             }
             list.add(type);
         }
@@ -116,17 +165,35 @@ public class TypeManagerImpl implements TypeManager {
         return new TypeDefinitionListImpl(list);
     }
 
+    /**
+     * Gets a copy of the type without its property definitions. The copy is computed once and then shared.
+     */
+    protected TypeDefinition getTypeWithoutProperties(TypeDefinition type) {
+        TypeDefinition copy = typesWithoutProperties.get(type.getId());
+        if (copy == null) {
+            copy = WSConverter.convert(WSConverter.convert(type)); // clone
+            copy.getPropertyDefinitions().clear();
+            typesWithoutProperties.put(type.getId(), copy);
+        }
+        return copy;
+    }
+
     public List<TypeDefinitionContainer> getTypeDescendants(String typeId, int depth, Boolean includePropertyDefinitions) {
-        List<TypeDefinitionContainer> types;
         boolean includeProps = Boolean.TRUE.equals(includePropertyDefinitions);
+        String key = typeId + '/' + (typeId == null ? -1 : depth) + '/' + includeProps;
+        List<TypeDefinitionContainer> types = typeDescendantsCache.get(key);
+        if (types == null) {
+            types = computeTypeDescendants(typeId, depth, includeProps);
+            typeDescendantsCache.put(key, types);
+        }
+        return types;
+    }
+
+    protected List<TypeDefinitionContainer> computeTypeDescendants(String typeId, int depth, boolean includeProps) {
+        List<TypeDefinitionContainer> types;
         if (typeId == null) {
             // return all types, unlimited depth
-            types = new ArrayList<TypeDefinitionContainer>(4);
-            for (TypeDefinitionContainer tc : typesMap.values()) {
-                if (tc.getTypeDefinition().getParentTypeId() == null) {
-                    types.add(tc);
-                }
-            }
+            types = new ArrayList<TypeDefinitionContainer>(rootTypes);
             if (!includeProps) {
                 // remove props
                 types = cloneTypes(types, -1, false);
@@ -156,27 +223,20 @@ public class TypeManagerImpl implements TypeManager {
 
     @Override
     public Collection<TypeDefinitionContainer> getTypeDefinitionList() {
-        List<TypeDefinitionContainer> typeRoots = new ArrayList<TypeDefinitionContainer>();
-        // iterate types map and return a list collecting the root types:
-        for (TypeDefinitionContainer typeCont : typesMap.values()) {
-            if (typeCont.getTypeDefinition().getParentTypeId() == null) {
-                typeRoots.add(typeCont);
-            }
-        }
-        return typeRoots;
+        return new ArrayList<TypeDefinitionContainer>(rootTypes);
     }
 
     @Override
     public List<TypeDefinitionContainer> getRootTypes() {
-        List<TypeDefinitionContainer> rootTypes = new ArrayList<TypeDefinitionContainer>();
-        for (TypeDefinitionContainer type : typesMap.values()) {
+        List<TypeDefinitionContainer> types = new ArrayList<TypeDefinitionContainer>();
+        for (TypeDefinitionContainer type : rootTypes) {
             String id = type.getTypeDefinition().getId();
             if (BaseTypeId.CMIS_DOCUMENT.value().equals(id) || BaseTypeId.CMIS_FOLDER.value().equals(id)
                     || BaseTypeId.CMIS_RELATIONSHIP.value().equals(id) || BaseTypeId.CMIS_POLICY.value().equals(id)) {
-                rootTypes.add(type);
+                types.add(type);
             }
         }
-        return rootTypes;
+        return types;
     }
 
     /**
@@ -193,12 +253,23 @@ public class TypeManagerImpl implements TypeManager {
             throw new RuntimeException("Type already exists: " + id);
         }
 
+        // type system changes, drop cached results
+        typesWithoutProperties.clear();
+        typeDescendantsCache.clear();
+        typeAndDescendantIds.clear();
+
         TypeDefinitionContainer typeContainer = new TypeDefinitionContainerImpl(type);
         // add type to type map
         typesMap.put(id, typeContainer);
+        if (!typesByQueryName.containsKey(type.getQueryName())) {
+            // first registration wins, later types can't shadow it
+            typesByQueryName.put(type.getQueryName(), type);
+        }
 
         String parentId = type.getParentTypeId();
-        if (parentId != null) {
+        if (parentId == null) {
+            rootTypes.add(typeContainer);
+        } else {
             if (!typesMap.containsKey(parentId)) {
                 throw new RuntimeException("Cannot add type " + id + ", parent does not exist: " + parentId);
             }
@@ -213,15 +284,18 @@ public class TypeManagerImpl implements TypeManager {
         }
 
         // prop query names
+        Map<String, String> typePropQueryNames = new HashMap<String, String>();
         for (PropertyDefinition<?> pd : type.getPropertyDefinitions().values()) {
             String propQueryName = pd.getQueryName();
             String propId = pd.getId();
+            typePropQueryNames.put(propQueryName, propId);
             String old = propQueryNameToId.put(propQueryName, propId);
             if (old != null && !old.equals(propId)) {
                 throw new RuntimeException("Cannot add type " + id + ", query name " + propQueryName
                         + " already used for property id " + old);
             }
         }
+        typePropQueryNameToId.put(id, typePropQueryNames);
     }
 
     public void addTypeDefinition(TypeDefinition type) {
@@ -230,6 +304,11 @@ public class TypeManagerImpl implements TypeManager {
 
     @Override
     public String getPropertyIdForQueryName(TypeDefinition typeDefinition, String propQueryName) {
+        Map<String, String> typePropQueryNames = typePropQueryNameToId.get(typeDefinition.getId());
+        if (typePropQueryNames != null && typesMap.get(typeDefinition.getId()).getTypeDefinition() == typeDefinition) {
+            return typePropQueryNames.get(propQueryName);
+        }
+        // not a registered type
         for (PropertyDefinition<?> pd : typeDefinition.getPropertyDefinitions().values()) {
             if (pd.getQueryName().equals(propQueryName)) {
                 return pd.getId();
@@ -16,10 +16,14 @@
  */
 package org.nuxeo.ecm.core.opencmis.impl.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestSimpleImageInfo {
 
@@ -39,4 +43,69 @@ public class TestSimpleImageInfo {
         check("big_nuxeo_logo.png", 7939, "image/png");
     }
 
+    /** Counts the bytes read or skipped from the underlying stream. */
+    protected static class CountingInputStream extends FilterInputStream {
+
+        protected long count;
+
+        protected CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long num = super.skip(n);
+            count += num;
+            return num;
+        }
+    }
+
+    public void checkKnownLength(String name, long length, String mimeType) throws Exception {
+        CountingInputStream is = new CountingInputStream(getClass().getClassLoader().getResourceAsStream(name));
+        SimpleImageInfo info = new SimpleImageInfo(is, length);
+        assertEquals(800, info.getWidth());
+        assertEquals(600, info.getHeight());
+        assertEquals(length, info.getLength());
+        assertEquals(mimeType, info.getMimeType());
+        assertTrue(name + " read " + is.count, is.count < length);
+    }
+
+    @Test
+    public void testSimpleImageInfoKnownLength() throws Exception {
+        checkKnownLength("big_nuxeo_logo.gif", 11426, "image/gif");
+        checkKnownLength("big_nuxeo_logo.jpg", 36830, "image/jpeg");
+        checkKnownLength("big_nuxeo_logo.png", 7939, "image/png");
+    }
+
+    @Test
+    public void testSimpleImageInfoWebP() throws Exception {
+        // lossless header for 800x600: 14 bits width - 1, 14 bits height - 1
+        int bits = (800 - 1) | ((600 - 1) << 14);
+        byte[] header = { 'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'L', 0, 0, 0, 0, 0x2F,
+                (byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24) };
+        SimpleImageInfo info = new SimpleImageInfo(new ByteArrayInputStream(header));
+        assertEquals(800, info.getWidth());
+        assertEquals(600, info.getHeight());
+        assertEquals(header.length, info.getLength());
+        assertEquals("image/webp", info.getMimeType());
+    }
+
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.ObjectId;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.QueryResult;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.data.ContentStream;
+import org.apache.chemistry.opencmis.commons.enums.VersioningState;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.opencmis.tests.Helper;
+import org.nuxeo.ecm.core.storage.sql.ra.PoolingRepositoryFactory;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Load test replaying a mix of operations with concurrent virtual users, run for each binding by the TestCmisLoad*
+ * classes.
+ * <p>
+ * Only runs when the system property {@value #LOAD_PROP} is {@code true}. The number of virtual users, the number of
+ * operations per user and the operation mix (for instance {@code browse=4,query=2,download=2,upload=1,checkout=1})
+ * are read from {@value #USERS_PROP}, {@value #OPERATIONS_PROP} and {@value #MIX_PROP}. The throughput and the p50/p99
+ * latencies are logged for each operation, and the allocations of the whole JVM (client and server threads) for the
+ * run.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features(CmisFeature.class)
+@Deploy({ "org.nuxeo.ecm.webengine.core" })
+@LocalDeploy({ "org.nuxeo.ecm.core.opencmis.tests.tests:OSGI-INF/types-contrib.xml" })
+@RepositoryConfig(cleanup = Granularity.METHOD, repositoryFactoryClass = PoolingRepositoryFactory.class)
+public class CmisSuiteLoad {
+
+    private static final Log log = LogFactory.getLog(CmisSuiteLoad.class);
+
+    public static final String LOAD_PROP = "org.nuxeo.cmis.load";
+
+    public static final String USERS_PROP = "org.nuxeo.cmis.load.users";
+
+    public static final String OPERATIONS_PROP = "org.nuxeo.cmis.load.operations";
+
+    public static final String MIX_PROP = "org.nuxeo.cmis.load.mix";
+
+    public static final int DEFAULT_USERS = 4;
+
+    public static final int DEFAULT_OPERATIONS = 200;
+
+    public static final String DEFAULT_MIX = "browse=4,query=2,download=2,upload=1,checkout=1";
+
+    public enum Operation {
+        BROWSE, QUERY, DOWNLOAD, UPLOAD, CHECKOUT
+    }
+
+    @Inject
+    protected CoreFeature coreFeature;
+
+    @Inject
+    protected CmisFeatureSession cmisFeatureSession;
+
+    @Inject
+    protected CoreSession coreSession;
+
+    @Inject
+    protected EventService eventService;
+
+    @Inject
+    protected Session session;
+
+    protected Map<String, String> repoDetails;
+
+    protected OperationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("load test not enabled", Boolean.getBoolean(LOAD_PROP));
+        repoDetails = Helper.makeNuxeoRepository(coreSession);
+        coreFeature.getStorageConfiguration().sleepForFulltext();
+        waitForAsyncCompletion();
+        session.clear();
+        // don't measure the client cache
+        context = session.createOperationContext();
+        context.setCacheEnabled(false);
+    }
+
+    protected void waitForAsyncCompletion() {
+        TransactionHelper.commitOrRollbackTransaction();
+        eventService.waitForAsyncCompletion();
+        TransactionHelper.startTransaction();
+    }
+
+    /**
+     * Parses a mix like {@code browse=4,query=1} into the list of operations to draw from.
+     */
+    protected static List<Operation> parseMix(String mix) {
+        List<Operation> ops = new ArrayList<Operation>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            Operation op = Operation.valueOf(kv[0].trim().toUpperCase());
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                ops.add(op);
+            }
+        }
+        if (ops.isEmpty()) {
+            throw new IllegalArgumentException("Empty mix: " + mix);
+        }
+        return ops;
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        int users = Integer.getInteger(USERS_PROP, DEFAULT_USERS).intValue();
+        final int operations = Integer.getInteger(OPERATIONS_PROP, DEFAULT_OPERATIONS).intValue();
+        final List<Operation> mix = parseMix(System.getProperty(MIX_PROP, DEFAULT_MIX));
+
+        // one folder and one versionable document per virtual user, to avoid conflicts
+        Folder root = session.getRootFolder();
+        final List<Folder> folders = new ArrayList<Folder>();
+        final List<Document> docs = new ArrayList<Document>();
+        for (int i = 0; i < users; i++) {
+            Folder folder = root.createFolder(properties("Folder", "load" + i));
+            folders.add(folder);
+            docs.add(folder.createDocument(properties("File", "doc"), contentStream("doc"), VersioningState.MAJOR));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(users);
+        List<Future<Stats>> futures = new ArrayList<Future<Stats>>();
+        long allocated = getAllocatedBytes();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            final int user = i;
+            futures.add(executor.submit(new Callable<Stats>() {
+                @Override
+                public Stats call() throws Exception {
+                    return runVirtualUser(user, operations, mix, folders.get(user), docs.get(user));
+                }
+            }));
+        }
+        Stats total = new Stats();
+        for (Future<Stats> future : futures) {
+            total.add(future.get());
+        }
+        long elapsed = System.nanoTime() - t0;
+        // before shutdown, the allocations of terminated threads are not counted
+        allocated = getAllocatedBytes() - allocated;
+        executor.shutdown();
+
+        String binding = cmisFeatureSession.isAtomPub ? "atompub" : cmisFeatureSession.isBrowser ? "browser"
+                : cmisFeatureSession.isHttp ? "webservices" : "local";
+        total.log(binding, users, elapsed, allocated);
+        assertEquals(users * operations, total.count());
+    }
+
+    protected Stats runVirtualUser(int user, int operations, List<Operation> mix, Folder folder, Document doc)
+            throws IOException {
+        Stats stats = new Stats();
+        Random random = new Random(user);
+        String file1Path = "/testfolder1/testfile1";
+        for (int i = 0; i < operations; i++) {
+            Operation op = mix.get(random.nextInt(mix.size()));
+            long t0 = System.nanoTime();
+            switch (op) {
+            case BROWSE:
+                Folder f = (Folder) session.getObjectByPath("/testfolder1", context);
+                for (CmisObject child : f.getChildren(context)) {
+                    child.getName();
+                }
+                break;
+            case QUERY:
+                for (QueryResult qr : session.query("SELECT cmis:objectId FROM File WHERE dc:title = 'testfile1_Title'",
+                        false, context)) {
+                    qr.getPropertyValueById(PropertyIds.OBJECT_ID);
+                }
+                break;
+            case DOWNLOAD:
+                Document d = (Document) session.getObjectByPath(file1Path, context);
+                try (InputStream in = d.getContentStream().getStream()) {
+                    IOUtils.toByteArray(in);
+                }
+                break;
+            case UPLOAD:
+                String name = "upload" + i;
+                folder.createDocument(properties("File", name), contentStream(name), VersioningState.NONE, null,
+                        null, null, context);
+                break;
+            case CHECKOUT:
+                Document latest = (Document) session.getObject(doc.getId(), context);
+                ObjectId pwcId = latest.checkOut();
+                Document pwc = (Document) session.getObject(pwcId, context);
+                pwc.checkIn(true, null, null, "load");
+                break;
+            }
+            stats.add(op, System.nanoTime() - t0);
+        }
+        return stats;
+    }
+
+    protected static Map<String, Object> properties(String type, String name) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(PropertyIds.OBJECT_TYPE_ID, type);
+        properties.put(PropertyIds.NAME, name);
+        return properties;
+    }
+
+    protected ContentStream contentStream(String name) {
+        byte[] bytes = Helper.FILE1_CONTENT.getBytes();
+        return session.getObjectFactory().createContentStream(name + ".txt", bytes.length, "text/plain",
+                new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Bytes allocated by all the live threads of the JVM, or 0 if the JVM cannot tell.
+     * <p>
+     * The server runs in the same JVM, so this includes the allocations of the threads serving the requests, not only
+     * of the client threads. Allocations of concurrent users cannot be told apart, so this is only measured for the
+     * whole run.
+     */
+    protected static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long[] ids = bean.getAllThreadIds();
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(ids)) {
+            if (allocated > 0) {
+                // -1 for threads that died or if measurement is disabled
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Latencies per operation.
+     */
+    protected static class Stats {
+
+        protected final Map<Operation, List<Long>> latencies = new EnumMap<Operation, List<Long>>(Operation.class);
+
+        public void add(Operation op, long latency) {
+            List<Long> list = latencies.get(op);
+            if (list == null) {
+                latencies.put(op, list = new ArrayList<Long>());
+            }
+            list.add(Long.valueOf(latency));
+        }
+
+        public void add(Stats other) {
+            for (Operation op : other.latencies.keySet()) {
+                List<Long> list = latencies.get(op);
+                if (list == null) {
+                    latencies.put(op, list = new ArrayList<Long>());
+                }
+                list.addAll(other.latencies.get(op));
+            }
+        }
+
+        public int count() {
+            int count = 0;
+            for (List<Long> list : latencies.values()) {
+                count += list.size();
+            }
+            return count;
+        }
+
+        public void log(String binding, int users, long elapsed, long allocated) {
+            double seconds = elapsed / 1e9;
+            log.info(String.format("%s: %d users, %d operations in %.1f s, %.1f ops/s, %d KB/op allocated", binding,
+                    Integer.valueOf(users), Integer.valueOf(count()), Double.valueOf(seconds),
+                    Double.valueOf(count() / seconds), Long.valueOf(allocated / Math.max(count(), 1) / 1024)));
+            for (Operation op : latencies.keySet()) {
+                List<Long> list = latencies.get(op);
+                Long[] sorted = list.toArray(new Long[list.size()]);
+                Arrays.sort(sorted);
+                log.info(String.format("%s: %s: %d ops, p50 %.1f ms, p99 %.1f ms", binding,
+                        op.name().toLowerCase(), Integer.valueOf(sorted.length),
+                        Double.valueOf(percentile(sorted, 50) / 1e6), Double.valueOf(percentile(sorted, 99) / 1e6)));
+            }
+        }
+
+        protected static long percentile(Long[] sorted, int p) {
+            int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)].longValue();
+        }
+    }
+
+}
@@ -1185,6 +1185,20 @@ public class CmisSuiteSession {
         }
     }
 
+    @Test
+    public void testContentStreamSendfile() throws Exception {
+        Framework.getProperties().setProperty(NuxeoContentStream.SENDFILE_PROP, "true");
+        try {
+            Document file = (Document) session.getObjectByPath("/testfolder1/testfile1");
+            ContentStream cs = file.getContentStream();
+            assertNotNull(cs);
+            // sent by the container if it supports it, otherwise by the bindings
+            assertEquals(Helper.FILE1_CONTENT, Helper.read(cs.getStream(), "UTF-8"));
+        } finally {
+            Framework.getProperties().remove(NuxeoContentStream.SENDFILE_PROP);
+        }
+    }
+
     @Test
     public void testComplexProperties() throws Exception {
         // Enable complex properties
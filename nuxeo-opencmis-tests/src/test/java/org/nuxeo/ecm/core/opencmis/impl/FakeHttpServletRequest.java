@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Request only knowing its scheme, server name, server port and context path.
+ *
+ * @since 7.3
+ */
+public class FakeHttpServletRequest implements InvocationHandler {
+
+    protected final String scheme;
+
+    protected final String serverName;
+
+    protected final int serverPort;
+
+    protected final String contextPath;
+
+    public static HttpServletRequest getRequest(String scheme, String serverName, int serverPort, String contextPath) {
+        FakeHttpServletRequest handler = new FakeHttpServletRequest(scheme, serverName, serverPort, contextPath);
+        return (HttpServletRequest) Proxy.newProxyInstance(FakeHttpServletRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, handler);
+    }
+
+    protected FakeHttpServletRequest(String scheme, String serverName, int serverPort, String contextPath) {
+        this.scheme = scheme;
+        this.serverName = serverName;
+        this.serverPort = serverPort;
+        this.contextPath = contextPath;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+        if ("getScheme".equals(methodName)) {
+            return scheme;
+        } else if ("getServerName".equals(methodName)) {
+            return serverName;
+        } else if ("getServerPort".equals(methodName)) {
+            return Integer.valueOf(serverPort);
+        } else if ("getContextPath".equals(methodName)) {
+            return contextPath;
+        }
+        return null;
+    }
+
+}
@@ -52,13 +52,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeFalse;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -77,6 +80,9 @@ import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+import javax.servlet.http.HttpServletRequest;
 
 import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.chemistry.opencmis.commons.data.Ace;
@@ -87,6 +93,7 @@ import org.apache.chemistry.opencmis.commons.data.ChangeEventInfo;
 import org.apache.chemistry.opencmis.commons.data.ContentStream;
 import org.apache.chemistry.opencmis.commons.data.ObjectData;
 import org.apache.chemistry.opencmis.commons.data.ObjectInFolderContainer;
+import org.apache.chemistry.opencmis.commons.data.ObjectInFolderData;
 import org.apache.chemistry.opencmis.commons.data.ObjectInFolderList;
 import org.apache.chemistry.opencmis.commons.data.ObjectList;
 import org.apache.chemistry.opencmis.commons.data.ObjectParentData;
@@ -111,6 +118,7 @@ import org.apache.chemistry.opencmis.commons.enums.CapabilityContentStreamUpdate
 import org.apache.chemistry.opencmis.commons.enums.CapabilityJoin;
 import org.apache.chemistry.opencmis.commons.enums.CapabilityQuery;
 import org.apache.chemistry.opencmis.commons.enums.CapabilityRenditions;
+import org.apache.chemistry.opencmis.commons.enums.CmisVersion;
 import org.apache.chemistry.opencmis.commons.enums.ChangeType;
 import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
 import org.apache.chemistry.opencmis.commons.enums.SupportedPermissions;
@@ -123,7 +131,11 @@ import org.apache.chemistry.opencmis.commons.impl.dataobjects.AccessControlEntry
 import org.apache.chemistry.opencmis.commons.impl.dataobjects.AccessControlListImpl;
 import org.apache.chemistry.opencmis.commons.impl.dataobjects.AccessControlPrincipalDataImpl;
 import org.apache.chemistry.opencmis.commons.impl.dataobjects.ContentStreamImpl;
+import org.apache.chemistry.opencmis.commons.server.CallContext;
+import org.apache.chemistry.opencmis.commons.server.CmisService;
 import org.apache.chemistry.opencmis.commons.spi.Holder;
+import org.apache.chemistry.opencmis.server.impl.CallContextImpl;
+import org.apache.chemistry.opencmis.server.shared.ThresholdOutputStreamFactory;
 import org.apache.chemistry.opencmis.server.support.query.CalendarHelper;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -137,14 +149,23 @@ import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.core.api.RecoverableClientException;
+import org.nuxeo.ecm.core.api.local.ClientLoginModule;
 import org.nuxeo.ecm.core.api.security.ACE;
 import org.nuxeo.ecm.core.api.security.ACL;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
 import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
+import org.nuxeo.ecm.core.opencmis.bindings.NuxeoCmisServiceFactory;
+import org.nuxeo.ecm.core.opencmis.bindings.NuxeoCmisServiceFactoryManager;
+import org.nuxeo.ecm.core.opencmis.impl.client.NuxeoBinding;
+import org.nuxeo.ecm.core.opencmis.impl.server.CoreSessionCallStats;
+import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoCmisService;
+import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoRepositories;
 import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoRepository;
 import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoTypeHelper;
+import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoTypesReloadListener;
+import org.nuxeo.ecm.core.opencmis.impl.util.TypeManagerImpl;
 import org.nuxeo.ecm.core.opencmis.tests.Helper;
 import org.nuxeo.ecm.core.storage.sql.ra.PoolingRepositoryFactory;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
@@ -152,6 +173,9 @@ import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.elasticsearch.api.ElasticSearchAdmin;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.services.event.Event;
+import org.nuxeo.runtime.services.event.EventService;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 import org.nuxeo.runtime.test.runner.LocalDeploy;
@@ -159,6 +183,9 @@ import org.nuxeo.runtime.test.runner.RandomBug;
 import org.nuxeo.runtime.test.runner.RuntimeHarness;
 import org.nuxeo.runtime.transaction.TransactionHelper;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
 /**
  * Tests that hit directly the server APIs.
  * <p>
@@ -278,6 +305,237 @@ public class TestCmisBinding extends TestCmisBindingBase {
         checkInfo(info);
     }
 
+    @Test
+    public void testMetrics() {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        String name = MetricRegistry.name("nuxeo", "cmis", CallContext.BINDING_LOCAL, repositoryId, "getChildren");
+        long count = registry.timer(name).getCount();
+        long results = registry.histogram(name + ".results").getCount();
+        long errors = registry.meter(name + ".errors").getCount();
+        navService.getChildren(repositoryId, rootFolderId, null, null, null, null, null, null, null, null, null);
+        assertEquals(count + 1, registry.timer(name).getCount());
+        assertEquals(results + 1, registry.histogram(name + ".results").getCount());
+        try {
+            navService.getChildren(repositoryId, "nosuchid", null, null, null, null, null, null, null, null, null);
+            fail();
+        } catch (CmisObjectNotFoundException e) {
+            // ok
+        }
+        assertEquals(count + 2, registry.timer(name).getCount());
+        assertEquals(errors + 1, registry.meter(name + ".errors").getCount());
+    }
+
+    @Test
+    public void testCoreSessionCallStats() {
+        NuxeoRepository repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
+        assertNull(NuxeoCmisService.extractFromCmisService(((NuxeoBinding) binding).service).getCallStats());
+        repository.setSlowCallThreshold(1);
+        try {
+            reSetUp(USERNAME);
+            NuxeoCmisService service = NuxeoCmisService.extractFromCmisService(((NuxeoBinding) binding).service);
+            CoreSessionCallStats stats = service.getCallStats();
+            assertNotNull(stats);
+            long[] before = stats.snapshot();
+            query("SELECT * FROM File");
+            long[] after = stats.snapshot();
+            assertTrue(after[0] > before[0]); // calls
+            assertTrue(after[1] > before[1]); // queries
+
+            // permission checks made for the allowable actions go through the service session
+            ObjectInFolderList children = navService.getChildren(repositoryId, rootFolderId, null, null, Boolean.TRUE,
+                    null, null, null, null, null, null);
+            List<ObjectInFolderData> objects = children.getObjects();
+            assertFalse(objects.isEmpty());
+            before = stats.snapshot();
+            for (ObjectInFolderData object : objects) {
+                assertNotNull(object.getObject().getAllowableActions());
+            }
+            after = stats.snapshot();
+            assertEquals(objects.size(), after[0] - before[0]);
+        } finally {
+            repository.setSlowCallThreshold(0);
+        }
+    }
+
+    protected LoginContext login(String username) throws LoginException {
+        LoginContext loginContext = Framework.loginAsUser(username);
+        Object principal = loginContext.getSubject().getPrincipals().iterator().next();
+        ClientLoginModule.getThreadLocalLogin().push((java.security.Principal) principal, null,
+                loginContext.getSubject());
+        return loginContext;
+    }
+
+    protected void logout(LoginContext loginContext) throws LoginException {
+        loginContext.logout();
+        ClientLoginModule.getThreadLocalLogin().pop();
+    }
+
+    protected CmisService getAtomPubService(NuxeoCmisServiceFactory serviceFactory, String username) {
+        ThresholdOutputStreamFactory streamFactory = ThresholdOutputStreamFactory.newInstance(
+                new File(System.getProperty("java.io.tmpdir")), THRESHOLD, MAX_SIZE, false);
+        CallContextImpl context = new CallContextImpl(CallContext.BINDING_ATOMPUB, CmisVersion.CMIS_1_1, repositoryId,
+                FakeServletContext.getServletContext(), null, null, serviceFactory, streamFactory);
+        context.put(CallContext.USERNAME, username);
+        return serviceFactory.getService(context);
+    }
+
+    @Test
+    public void testReusedServices() throws Exception {
+        // folder only readable by the Administrator
+        DocumentModel folder = coreSession.createDocumentModel("/", "private", "Folder");
+        folder = coreSession.createDocument(folder);
+        ACP acp = new ACPImpl();
+        ACL acl = new ACLImpl();
+        acl.add(new ACE(SecurityConstants.ADMINISTRATOR, SecurityConstants.EVERYTHING, true));
+        acl.add(new ACE(SecurityConstants.EVERYONE, SecurityConstants.EVERYTHING, false));
+        acp.addACL(acl);
+        coreSession.setACP(folder.getRef(), acp, true);
+        coreSession.save();
+        nextTransaction();
+        String privateId = folder.getId();
+
+        NuxeoCmisServiceFactoryManager manager = Framework.getService(NuxeoCmisServiceFactoryManager.class);
+        NuxeoCmisServiceFactory serviceFactory = manager.getNuxeoCmisServiceFactory();
+        try {
+            // first request, collects object infos and prefetches the children
+            LoginContext loginContext = login(USERNAME);
+            CmisService service1;
+            NuxeoCmisService nuxeoService;
+            try {
+                service1 = getAtomPubService(serviceFactory, USERNAME);
+                nuxeoService = NuxeoCmisService.extractFromCmisService(service1);
+                assertEquals(USERNAME, nuxeoService.getCoreSession().getPrincipal().getName());
+                service1.getChildren(repositoryId, rootFolderId, null, null, Boolean.FALSE,
+                        IncludeRelationships.NONE, null, Boolean.FALSE, null, null, null);
+                assertNotNull(nuxeoService.getObjectInfo(repositoryId, privateId));
+                service1.close();
+                assertNull(nuxeoService.getCallContext());
+                assertNull(nuxeoService.getCoreSession());
+            } finally {
+                logout(loginContext);
+            }
+
+            // second request on the same thread by another user
+            loginContext = login("bob");
+            try {
+                CmisService service2 = getAtomPubService(serviceFactory, "bob");
+                assertTrue(service1 == service2); // reused
+                assertEquals("bob", nuxeoService.getCallContext().getUsername());
+                assertEquals("bob", nuxeoService.getCoreSession().getPrincipal().getName());
+                try {
+                    nuxeoService.getObjectInfo(repositoryId, privateId);
+                    fail("object info of the previous request should not be visible");
+                } catch (CmisObjectNotFoundException e) {
+                    // ok
+                }
+                service2.close();
+            } finally {
+                logout(loginContext);
+            }
+        } finally {
+            serviceFactory.destroy();
+        }
+    }
+
+    @Test
+    public void testQueryAllowableActions() {
+        ObjectList res = discService.query(repositoryId, "SELECT cmis:objectId FROM File", Boolean.FALSE, Boolean.TRUE,
+                IncludeRelationships.NONE, null, null, null, null);
+        assertTrue(res.getObjects().size() > 0);
+        for (ObjectData data : res.getObjects()) {
+            Set<Action> actions = data.getAllowableActions().getAllowableActions();
+            assertEquals(objService.getAllowableActions(repositoryId, data.getId(), null).getAllowableActions(),
+                    actions);
+            assertTrue(actions.contains(Action.CAN_UPDATE_PROPERTIES));
+        }
+    }
+
+    @Test
+    public void testPrimaryTypeClause() {
+        NuxeoRepository repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
+        // base type: its subtypes are listed, never the other types
+        String clause = repository.getPrimaryTypeClause(BaseTypeId.CMIS_DOCUMENT.value());
+        assertTrue(clause, clause.startsWith("ecm:primaryType IN ("));
+        assertTrue(clause, clause.contains("'File'"));
+        assertTrue(clause, clause.contains("'Note'"));
+        assertFalse(clause, clause.contains("'Folder'"));
+        clause = repository.getPrimaryTypeClause(BaseTypeId.CMIS_FOLDER.value());
+        assertTrue(clause, clause.startsWith("ecm:primaryType IN ("));
+        assertTrue(clause, clause.contains("'Folder'"));
+        assertFalse(clause, clause.contains("'File'"));
+        // type with subtypes: the type itself and its subtypes
+        clause = repository.getPrimaryTypeClause("File");
+        assertTrue(clause, clause.startsWith("ecm:primaryType IN ("));
+        assertTrue(clause, clause.contains("'File'"));
+        assertTrue(clause, clause.contains("'ComplexFile'"));
+        assertFalse(clause, clause.contains("'Note'"));
+        // folderish subtype of File is a cmis:folder subtype
+        assertFalse(clause, clause.contains("'MyForum2'"));
+        // leaf type
+        assertEquals("ecm:primaryType IN ('ComplexFile')", repository.getPrimaryTypeClause("ComplexFile"));
+        // the clause is computed once
+        assertSame(clause, repository.getPrimaryTypeClause("File"));
+    }
+
+    @Test
+    public void testTypesInvalidatedOnReload() {
+        NuxeoRepository repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
+        TypeManagerImpl typeManager = repository.getTypeManager();
+        String clause = repository.getPrimaryTypeClause("File");
+        Event event = new Event(NuxeoTypesReloadListener.RELOAD_TOPIC, NuxeoTypesReloadListener.FLUSH_EVENT_ID, this,
+                null);
+        Framework.getLocalService(EventService.class).sendEvent(event);
+        // recomputed from the schema manager
+        assertNotSame(typeManager, repository.getTypeManager());
+        String newClause = repository.getPrimaryTypeClause("File");
+        assertNotSame(clause, newClause);
+        assertEquals(clause, newClause);
+    }
+
+    protected CallContext getRemoteCallContext(HttpServletRequest request) {
+        return new CallContextImpl(CallContext.BINDING_BROWSER, CmisVersion.CMIS_1_1, repositoryId,
+                FakeServletContext.getServletContext(), request, null, null, null);
+    }
+
+    @Test
+    public void testRepositoryInfoCache() {
+        NuxeoRepository repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
+        HttpServletRequest request1 = FakeHttpServletRequest.getRequest("http", "host1", 8080, "/nuxeo");
+        HttpServletRequest request2 = FakeHttpServletRequest.getRequest("https", "host2", 443, "/ctx");
+        RepositoryInfo info1 = repository.getRepositoryInfo("1", getRemoteCallContext(request1));
+        RepositoryInfo info2 = repository.getRepositoryInfo("2", getRemoteCallContext(request2));
+
+        // per-request parts
+        assertEquals("http://host1:8080/nuxeo/", info1.getThinClientUri());
+        assertEquals("https://host2/ctx/", info2.getThinClientUri());
+        assertEquals("1", info1.getLatestChangeLogToken());
+        assertEquals("2", info2.getLatestChangeLogToken());
+
+        // static parts are cached for remote callers
+        assertSame(info1.getCapabilities(), info2.getCapabilities());
+        assertSame(info1.getAclCapabilities(), info2.getAclCapabilities());
+
+        // local callers get their own structures
+        CallContext localContext = new CallContextImpl(CallContext.BINDING_LOCAL, CmisVersion.CMIS_1_1, repositoryId,
+                FakeServletContext.getServletContext(), null, null, null, null);
+        RepositoryInfo local1 = repository.getRepositoryInfo("3", localContext);
+        RepositoryInfo local2 = repository.getRepositoryInfo("3", localContext);
+        assertNotSame(info1.getCapabilities(), local1.getCapabilities());
+        assertNotSame(local1.getCapabilities(), local2.getCapabilities());
+        assertNotSame(info1.getAclCapabilities(), local1.getAclCapabilities());
+        assertNotSame(local1.getAclCapabilities(), local2.getAclCapabilities());
+        Map<String, PermissionMapping> permMap = local1.getAclCapabilities().getPermissionMapping();
+        assertNotSame(info1.getAclCapabilities().getPermissionMapping(), permMap);
+        assertFalse(permMap.isEmpty());
+        // modifying them doesn't change what others see
+        permMap.clear();
+        local1.getAclCapabilities().getPermissions().clear();
+        assertFalse(local2.getAclCapabilities().getPermissionMapping().isEmpty());
+        RepositoryInfo info3 = repository.getRepositoryInfo("4", getRemoteCallContext(request1));
+        assertFalse(info3.getAclCapabilities().getPermissionMapping().isEmpty());
+        assertFalse(info3.getAclCapabilities().getPermissions().isEmpty());
+    }
+
     protected static Set<String> set(String... strings) {
         return new HashSet<String>(Arrays.asList(strings));
     }
@@ -836,6 +1094,39 @@ public class TestCmisBinding extends TestCmisBindingBase {
         }
     }
 
+    @Test
+    public void testContentStreamRange() throws Exception {
+        ObjectData ob = getObjectByPath("/testfolder1/testfile1");
+
+        // offset and length
+        ContentStream cs = objService.getContentStream(repositoryId, ob.getId(), null, BigInteger.valueOf(8),
+                BigInteger.valueOf(4), null);
+        assertNotNull(cs);
+        assertEquals("with", Helper.read(cs.getStream(), "UTF-8"));
+
+        // offset only
+        cs = objService.getContentStream(repositoryId, ob.getId(), null, BigInteger.valueOf(13), null, null);
+        assertNotNull(cs);
+        assertEquals("rice", Helper.read(cs.getStream(), "UTF-8"));
+
+        // offset past the end
+        try {
+            objService.getContentStream(repositoryId, ob.getId(), null,
+                    BigInteger.valueOf(Helper.FILE1_CONTENT.length()), null, null);
+            fail("should have thrown CmisConstraintException");
+        } catch (CmisConstraintException e) {
+            // ok
+        }
+
+        // negative offset
+        try {
+            objService.getContentStream(repositoryId, ob.getId(), null, BigInteger.valueOf(-1), null, null);
+            fail("should have thrown CmisInvalidArgumentException");
+        } catch (CmisInvalidArgumentException e) {
+            // ok
+        }
+    }
+
     @Test
     public void testGetChildren() {
         ObjectInFolderList res;
@@ -1026,6 +1317,56 @@ public class TestCmisBinding extends TestCmisBindingBase {
         assertEquals("testfolder3_Title, testfolder4_Title", flat(tree));
     }
 
+    @Test
+    public void testGetDescendantsDeepTree() throws Exception {
+        List<ObjectInFolderContainer> tree;
+
+        // testfolder4/deep1/deep2/deep3/deepfile
+        String path = "/testfolder2/testfolder4";
+        for (String name : Arrays.asList("deep1", "deep2", "deep3")) {
+            DocumentModel folder = coreSession.createDocumentModel(path, name, "Folder");
+            folder.setPropertyValue("dc:title", name);
+            coreSession.createDocument(folder);
+            path += "/" + name;
+        }
+        DocumentModel file = coreSession.createDocumentModel(path, "deepfile", "File");
+        file.setPropertyValue("dc:title", "deepfile");
+        coreSession.createDocument(file);
+        coreSession.save();
+        nextTransaction();
+
+        String folder2Id = getObjectByPath("/testfolder2").getId();
+        String folder4Id = getObjectByPath("/testfolder2/testfolder4").getId();
+
+        tree = navService.getDescendants(repositoryId, folder2Id, BigInteger.valueOf(2), null, null, null, null, null,
+                null);
+        assertEquals("testfolder3_Title[testfile4_Title], testfolder4_Title[deep1]", flat(tree));
+
+        tree = navService.getDescendants(repositoryId, folder4Id, BigInteger.valueOf(2), null, null, null, null, null,
+                null);
+        assertEquals("deep1[deep2]", flat(tree));
+
+        tree = navService.getDescendants(repositoryId, folder4Id, BigInteger.valueOf(3), null, null, null, null, null,
+                null);
+        assertEquals("deep1[deep2[deep3]]", flat(tree));
+
+        tree = navService.getDescendants(repositoryId, folder4Id, BigInteger.valueOf(-1), null, null, null, null, null,
+                null);
+        assertEquals("deep1[deep2[deep3[deepfile]]]", flat(tree));
+
+        tree = navService.getFolderTree(repositoryId, folder2Id, BigInteger.valueOf(2), null, null, null, null, null,
+                null);
+        assertEquals("testfolder3_Title, testfolder4_Title[deep1]", flat(tree));
+
+        tree = navService.getFolderTree(repositoryId, folder4Id, BigInteger.valueOf(2), null, null, null, null, null,
+                null);
+        assertEquals("deep1[deep2]", flat(tree));
+
+        tree = navService.getFolderTree(repositoryId, folder4Id, BigInteger.valueOf(-1), null, null, null, null, null,
+                null);
+        assertEquals("deep1[deep2[deep3]]", flat(tree));
+    }
+
     @Test
     public void testCreateDocumentFromSource() throws Exception {
         ObjectData ob = getObjectByPath("/testfolder1/testfile1");
@@ -1580,6 +1921,83 @@ public class TestCmisBinding extends TestCmisBindingBase {
         assertEquals("testfile1_Title", getValue(res.getObjects().get(0), "cmis:name"));
     }
 
+    @Test
+    public void testQueryNoCount() throws Exception {
+        NuxeoRepository repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
+        ObjectList res;
+        List<ObjectData> objects;
+
+        waitForIndexing();
+
+        String statement = "SELECT cmis:name FROM File ORDER BY cmis:name";
+        repository.setCountQueryResults(false);
+        try {
+            // middle page, total unknown
+            res = discService.query(repositoryId, statement, Boolean.TRUE, null, null, null, BigInteger.valueOf(1),
+                    BigInteger.valueOf(1), null);
+            assertNull(res.getNumItems());
+            assertEquals(Boolean.TRUE, res.hasMoreItems());
+            objects = res.getObjects();
+            assertEquals(1, objects.size());
+            assertEquals("testfile2_Title", getString(objects.get(0), PropertyIds.NAME));
+
+            // last page, total known
+            res = discService.query(repositoryId, statement, Boolean.TRUE, null, null, null, BigInteger.valueOf(2),
+                    BigInteger.valueOf(1), null);
+            assertEquals(3, res.getNumItems().intValue());
+            assertEquals(Boolean.FALSE, res.hasMoreItems());
+            objects = res.getObjects();
+            assertEquals(2, objects.size());
+            assertEquals("testfile4_Title", getString(objects.get(1), PropertyIds.NAME));
+
+            // skip past the end, total unknown
+            res = discService.query(repositoryId, statement, Boolean.TRUE, null, null, null, BigInteger.valueOf(2),
+                    BigInteger.valueOf(5), null);
+            assertNull(res.getNumItems());
+            assertEquals(Boolean.FALSE, res.hasMoreItems());
+            assertEquals(0, res.getObjects().size());
+        } finally {
+            repository.setCountQueryResults(true);
+        }
+    }
+
+    @Test
+    public void testQueryVirtualColumnPaging() throws Exception {
+        ObjectList res;
+        List<ObjectData> objects;
+
+        waitForIndexing();
+
+        // cmis:path is computed from the documents, read in batches
+        String statement = "SELECT cmis:objectId, cmis:path FROM cmis:folder"
+                + " WHERE cmis:name LIKE 'testfolder%' ORDER BY cmis:name";
+        res = discService.query(repositoryId, statement, Boolean.TRUE, null, null, null, BigInteger.valueOf(1),
+                BigInteger.valueOf(1), null);
+        assertEquals(4, res.getNumItems().intValue());
+        assertEquals(Boolean.TRUE, res.hasMoreItems());
+        objects = res.getObjects();
+        assertEquals(1, objects.size());
+        assertEquals("/testfolder2", getString(objects.get(0), PropertyIds.PATH));
+
+        res = discService.query(repositoryId, statement, Boolean.TRUE, null, null, null, BigInteger.valueOf(2),
+                BigInteger.valueOf(1), null);
+        assertEquals(4, res.getNumItems().intValue());
+        assertEquals(Boolean.TRUE, res.hasMoreItems());
+        objects = res.getObjects();
+        assertEquals(2, objects.size());
+        assertEquals("/testfolder2", getString(objects.get(0), PropertyIds.PATH));
+        assertEquals("/testfolder2/testfolder3", getString(objects.get(1), PropertyIds.PATH));
+
+        // last page
+        res = discService.query(repositoryId, statement, Boolean.TRUE, null, null, null, BigInteger.valueOf(1),
+                BigInteger.valueOf(3), null);
+        assertEquals(4, res.getNumItems().intValue());
+        assertEquals(Boolean.FALSE, res.hasMoreItems());
+        objects = res.getObjects();
+        assertEquals(1, objects.size());
+        assertEquals("/testfolder2/testfolder4", getString(objects.get(0), PropertyIds.PATH));
+    }
+
     @Test
     public void testQueryPos() throws Exception {
         String statement;
@@ -1958,6 +2376,21 @@ public class TestCmisBinding extends TestCmisBindingBase {
         assertEquals(0, res.getNumItems().intValue());
     }
 
+    @Test
+    public void testQuerySameShapeDifferentLiterals() throws Exception {
+        waitForIndexing();
+
+        String statementPattern = "SELECT cmis:name FROM File WHERE cmis:name = '%s'";
+        ObjectList res = query(String.format(statementPattern, "testfile1_Title"));
+        assertEquals(1, res.getNumItems().intValue());
+        assertEquals("testfile1_Title", getString(res.getObjects().get(0), PropertyIds.NAME));
+        res = query(String.format(statementPattern, "testfile2_Title"));
+        assertEquals(1, res.getNumItems().intValue());
+        assertEquals("testfile2_Title", getString(res.getObjects().get(0), PropertyIds.NAME));
+        res = query(String.format(statementPattern, "it\\'s"));
+        assertEquals(0, res.getNumItems().intValue());
+    }
+
     @Test
     public void testQueryInTree() throws Exception {
         ObjectList res;
@@ -2990,6 +3423,49 @@ public class TestCmisBinding extends TestCmisBindingBase {
         checkChange(objects.get(10), doc.getId(), ChangeType.CREATED, "File");
     }
 
+    @Test
+    public void testGetContentChangesOldToken() throws Exception {
+        sleepForAudit();
+        String clt = repoService.getRepositoryInfo(repositoryId, null).getLatestChangeLogToken();
+        Holder<String> changeLogTokenHolder = new Holder<String>(clt);
+        discService.getContentChanges(repositoryId, changeLogTokenHolder, Boolean.TRUE, null, null, null,
+                BigInteger.valueOf(100), null);
+        // tokens used to be event dates
+        changeLogTokenHolder.setValue(String.valueOf(System.currentTimeMillis()));
+        try {
+            discService.getContentChanges(repositoryId, changeLogTokenHolder, Boolean.TRUE, null, null, null,
+                    BigInteger.valueOf(100), null);
+            fail("old change log token should be rejected");
+        } catch (CmisInvalidArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testLatestChangeLogTokenInvalidation() throws Exception {
+        NuxeoRepository repository = Framework.getService(NuxeoRepositories.class).getRepository(repositoryId);
+        sleepForAudit();
+        String clt1 = repoService.getRepositoryInfo(repositoryId, null).getLatestChangeLogToken();
+        assertEquals(clt1, repository.getLatestChangeLogToken());
+
+        // a local change drops the token kept in memory
+        DocumentModel doc = coreSession.createDocumentModel("/", "newfile", "File");
+        Helper.sleepForAuditGranularity();
+        coreSession.createDocument(doc);
+        coreSession.save();
+        nextTransaction();
+        assertNull(repository.getLatestChangeLogToken());
+        sleepForAudit();
+        String clt2 = repoService.getRepositoryInfo(repositoryId, null).getLatestChangeLogToken();
+        assertNotEquals(clt1, clt2);
+
+        // a token read before an invalidation is not kept
+        long generation = repository.getChangeLogTokenGeneration();
+        repository.invalidateLatestChangeLogToken();
+        repository.setLatestChangeLogToken(clt1, generation);
+        assertNull(repository.getLatestChangeLogToken());
+    }
+
     protected List<ObjectData> readAllContentChanges(Holder<String> changeLogTokenHolder) {
         List<ObjectData> allObjects = new ArrayList<ObjectData>();
         changeLogTokenHolder.setValue(null); // start at beginning
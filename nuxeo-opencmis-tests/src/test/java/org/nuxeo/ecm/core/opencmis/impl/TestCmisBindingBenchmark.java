@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.apache.chemistry.opencmis.commons.data.ObjectData;
+import org.apache.chemistry.opencmis.commons.data.ObjectList;
+import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.opencmis.impl.client.NuxeoBinding;
+import org.nuxeo.ecm.core.opencmis.impl.server.CMISQLtoNXQL;
+import org.nuxeo.ecm.core.opencmis.impl.server.CMISQLtoNXQL.QueryPlan;
+import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoCmisService;
+import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoObjectData;
+import org.nuxeo.ecm.core.opencmis.impl.server.NuxeoRepositories;
+import org.nuxeo.ecm.core.storage.sql.ra.PoolingRepositoryFactory;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+
+/**
+ * Timings of the main server-side operations, to have a baseline when comparing performance changes.
+ * <p>
+ * Only runs when the system property {@value #BENCHMARK_PROP} is {@code true}. The dataset size and the number of
+ * iterations can be changed with {@value #SIZE_PROP} and {@value #ITERATIONS_PROP}. The CMISQL to SQL queries are
+ * measured by {@link TestCmisBindingBenchmarkJoins}.
+ *
+ * @since 7.3
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ CmisFeature.class, CmisFeatureConfiguration.class })
+@LocalDeploy("org.nuxeo.ecm.core.opencmis.tests.tests:OSGI-INF/types-contrib.xml")
+@RepositoryConfig(cleanup = Granularity.METHOD, repositoryFactoryClass = PoolingRepositoryFactory.class)
+public class TestCmisBindingBenchmark extends TestCmisBindingBase {
+
+    private static final Log log = LogFactory.getLog(TestCmisBindingBenchmark.class);
+
+    public static final String BENCHMARK_PROP = "org.nuxeo.cmis.benchmark";
+
+    public static final String SIZE_PROP = "org.nuxeo.cmis.benchmark.size";
+
+    public static final String ITERATIONS_PROP = "org.nuxeo.cmis.benchmark.iterations";
+
+    public static final int DEFAULT_SIZE = 100;
+
+    public static final int DEFAULT_ITERATIONS = 1000;
+
+    protected static final int FOLDERS = 10;
+
+    protected static final String QUERY = "SELECT cmis:objectId, dc:title FROM File WHERE dc:title = 'doc 1'"
+            + " AND cmis:name LIKE 'doc%' ORDER BY cmis:name";
+
+    @Inject
+    protected CoreSession coreSession;
+
+    protected int size;
+
+    protected int iterations;
+
+    protected String folderId;
+
+    protected String docId;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("benchmark not enabled", Boolean.getBoolean(BENCHMARK_PROP));
+        size = Integer.getInteger(SIZE_PROP, DEFAULT_SIZE).intValue();
+        iterations = Integer.getInteger(ITERATIONS_PROP, DEFAULT_ITERATIONS).intValue();
+        setUpBinding(coreSession);
+        createDataset();
+    }
+
+    @After
+    public void tearDown() {
+        if (binding != null) {
+            tearDownBinding();
+        }
+    }
+
+    protected void createDataset() {
+        DocumentModel root = coreSession.createDocumentModel("/", "bench", "Folder");
+        root = coreSession.createDocument(root);
+        for (int i = 0; i < FOLDERS; i++) {
+            DocumentModel folder = coreSession.createDocumentModel(root.getPathAsString(), "folder" + i, "Folder");
+            folder = coreSession.createDocument(folder);
+            for (int j = i; j < size; j += FOLDERS) {
+                DocumentModel doc = coreSession.createDocumentModel(folder.getPathAsString(), "doc" + j, "File");
+                doc.setPropertyValue("dc:title", "doc " + j);
+                doc = coreSession.createDocument(doc);
+                if (j == 1) {
+                    docId = doc.getId();
+                }
+            }
+            if (i == 1) {
+                folderId = folder.getId();
+            }
+        }
+        coreSession.save();
+        waitForAsyncCompletion();
+    }
+
+    /**
+     * Runs the operation for warmup, then times it and logs the average time of one call.
+     */
+    protected void time(String name, Runnable operation) {
+        for (int i = 0; i < iterations / 10; i++) {
+            operation.run();
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long elapsed = System.nanoTime() - t0;
+        log.info(String.format("%s: %d docs, %d iterations, %.1f us/op", name, Integer.valueOf(size),
+                Integer.valueOf(iterations), Double.valueOf(elapsed / 1000.0 / iterations)));
+    }
+
+    @Test
+    public void testGetObject() {
+        time("getObject", new Runnable() {
+            @Override
+            public void run() {
+                objService.getObject(repositoryId, docId, null, Boolean.TRUE, IncludeRelationships.NONE, null,
+                        Boolean.FALSE, Boolean.FALSE, null);
+            }
+        });
+    }
+
+    @Test
+    public void testGetProperties() {
+        final NuxeoCmisService service = NuxeoCmisService.extractFromCmisService(((NuxeoBinding) binding).service);
+        final DocumentModel doc = coreSession.getDocument(new IdRef(docId));
+        time("NuxeoObjectData.getProperties", new Runnable() {
+            @Override
+            public void run() {
+                ObjectData data = new NuxeoObjectData(service, doc, null, null, null, null, null, null, null);
+                data.getProperties();
+            }
+        });
+    }
+
+    @Test
+    public void testGetChildren() {
+        time("getChildren", new Runnable() {
+            @Override
+            public void run() {
+                navService.getChildren(repositoryId, folderId, null, null, Boolean.FALSE, IncludeRelationships.NONE,
+                        null, Boolean.FALSE, null, null, null);
+            }
+        });
+    }
+
+    @Test
+    public void testGetDescendants() {
+        final String benchId = coreSession.getDocument(new PathRef("/bench")).getId();
+        time("getDescendants", new Runnable() {
+            @Override
+            public void run() {
+                navService.getDescendants(repositoryId, benchId, null, null, Boolean.FALSE,
+                        IncludeRelationships.NONE, null, Boolean.FALSE, null);
+            }
+        });
+    }
+
+    @Test
+    public void testQueryTranslation() {
+        assumeTrue("CMISQL to NXQL not used with joins", !supportsJoins());
+        final NuxeoCmisService service = NuxeoCmisService.extractFromCmisService(((NuxeoBinding) binding).service);
+        final Map<String, QueryPlan> queryPlans = Framework.getService(NuxeoRepositories.class).getRepository(
+                repositoryId).getQueryPlans();
+        time("CMISQLtoNXQL.getNXQL", new Runnable() {
+            @Override
+            public void run() {
+                if (queryPlans != null) {
+                    // measure the translation, not the plan cache
+                    queryPlans.clear();
+                }
+                new CMISQLtoNXQL().getNXQL(QUERY, service, null, false);
+            }
+        });
+        time("CMISQLtoNXQL.getNXQL cached", new Runnable() {
+            @Override
+            public void run() {
+                new CMISQLtoNXQL().getNXQL(QUERY, service, null, false);
+            }
+        });
+    }
+
+    @Test
+    public void testQuery() {
+        ObjectList res = discService.query(repositoryId, QUERY, Boolean.FALSE, null, null, null, null, null, null);
+        assertEquals(1, res.getNumItems().intValue());
+        time("query", new Runnable() {
+            @Override
+            public void run() {
+                discService.query(repositoryId, QUERY, Boolean.FALSE, Boolean.FALSE, IncludeRelationships.NONE,
+                        null, null, null, null);
+            }
+        });
+    }
+
+    @Test
+    public void testGetAcl() {
+        time("getAcl", new Runnable() {
+            @Override
+            public void run() {
+                aclService.getAcl(repositoryId, docId, Boolean.FALSE, null);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2015 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.opencmis.impl;
+
+import org.junit.Ignore;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite.SuiteClasses;
+import org.nuxeo.runtime.test.runner.ContributableFeaturesRunner;
+import org.nuxeo.runtime.test.runner.Features;
+
+/**
+ * Load test using Web Services. Ignored like {@link TestCmisSessionWebServices}.
+ */
+@Ignore
+@RunWith(ContributableFeaturesRunner.class)
+@SuiteClasses(CmisSuiteLoad.class)
+@Features(CmisFeatureSessionWebServices.class)
+public class TestCmisLoadWebServices {
+
+}